@@ -0,0 +1,305 @@
+package com.company.minery.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import com.badlogic.gdx.ApplicationListener;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.utils.Array;
+import com.company.minery.Constants;
+import com.company.minery.game.Game;
+import com.company.minery.game.GameAssets;
+import com.company.minery.game.GameUpdate;
+import com.company.minery.game.map.Generator;
+import com.company.minery.game.map.Map;
+import com.company.minery.game.map.MapLocation;
+import com.company.minery.game.player.Player;
+import com.company.minery.game.player.Player.MovementDirection;
+import com.company.minery.game.player.Spear;
+
+/**
+ * Measures {@link GameUpdate#update} on the test map for every combination of the given player and spear counts. Players run
+ * and jump on a fixed schedule, spears are relaunched whenever they get stuck or picked up so their number stays constant.
+ * 
+ * Has to be started from the server's assets directory, arguments are key=value pairs:
+ * players=2,8,32 spears=0,8,32 warmup=5000 ticks=20000 iterations=5 seed=1
+ */
+public final class GameUpdateBenchmark implements ApplicationListener {
+	
+	private final int[] playerCounts;
+	private final int[] spearCounts;
+	private final int warmupTicks;
+	private final int measuredTicks;
+	private final int iterations;
+	private final long seed;
+	
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final float deltaTime = 1f / Constants.TICK_RATE;
+	
+	private GameAssets assets;
+	private Map map;
+	private Random random;
+	
+	public GameUpdateBenchmark(final int[] playerCounts,
+							   final int[] spearCounts,
+							   final int warmupTicks,
+							   final int measuredTicks,
+							   final int iterations,
+							   final long seed) {
+		
+		this.playerCounts = playerCounts;
+		this.spearCounts = spearCounts;
+		this.warmupTicks = warmupTicks;
+		this.measuredTicks = measuredTicks;
+		this.iterations = iterations;
+		this.seed = seed;
+	}
+	
+	@Override
+	public void create() {
+		assets = new GameAssets();
+		map = Generator.generateTestMap(assets);
+		
+		System.out.println("players  spears   ns/tick (mean)   ns/tick (min)   stddev   B/tick   ns/object");
+		
+		for(int i = 0; i < playerCounts.length; i += 1) {
+			for(int ii = 0; ii < spearCounts.length; ii += 1) {
+				run(playerCounts[i], spearCounts[ii]);
+			}
+		}
+	}
+	
+	private void run(final int playerCount,
+					 final int spearCount) {
+		
+		final GameUpdate update = new GameUpdate();
+		final double[] nanosPerTick = new double[iterations];
+		long allocatedBytes = 0;
+		
+		random = new Random(seed);
+		
+		for(int i = 0; i < iterations; i += 1) {
+			// Every iteration starts from the same kind of state, dead players and settled spears would skew later ones.
+			final Game game = new Game(map, assets);
+			final Array<Spear> spears = new Array<Spear>();
+			setupGame(game, spears, playerCount, spearCount);
+			
+			for(int tick = 0; tick < warmupTicks; tick += 1) {
+				step(update, game, spears, tick);
+			}
+			
+			final long startBytes = allocatedBytes();
+			final long startTime = System.nanoTime();
+			
+			for(int tick = 0; tick < measuredTicks; tick += 1) {
+				step(update, game, spears, warmupTicks + tick);
+			}
+			
+			final long time = System.nanoTime() - startTime;
+			allocatedBytes += allocatedBytes() - startBytes;
+			
+			nanosPerTick[i] = (double) time / measuredTicks;
+		}
+		
+		double mean = 0;
+		double min = Double.MAX_VALUE;
+		
+		for(int i = 0; i < iterations; i += 1) {
+			mean += nanosPerTick[i] / iterations;
+			min = Math.min(min, nanosPerTick[i]);
+		}
+		
+		double variance = 0;
+		
+		for(int i = 0; i < iterations; i += 1) {
+			variance += (nanosPerTick[i] - mean) * (nanosPerTick[i] - mean) / iterations;
+		}
+		
+		final double bytesPerTick = allocatedBytes < 0 ? Double.NaN : (double) allocatedBytes / ((long) measuredTicks * iterations);
+		final int objects = Math.max(1, playerCount + spearCount);
+		
+		System.out.println(String.format("%7d %7d %16.0f %15.0f %8.0f %8.1f %11.1f", 
+										 playerCount, 
+										 spearCount, 
+										 mean, 
+										 min, 
+										 Math.sqrt(variance), 
+										 bytesPerTick, 
+										 mean / objects));
+	}
+	
+	private void setupGame(final Game game,
+						   final Array<Spear> spears,
+						   final int playerCount,
+						   final int spearCount) {
+		
+		final MapLocation[] startLocations = {
+			map.findLocationByName("p1_start"),
+			map.findLocationByName("p2_start")
+		};
+		
+		for(int i = 0; i < playerCount; i += 1) {
+			final MapLocation startLocation = startLocations[i % startLocations.length];
+			final Player player = new Player();
+			
+			player.game = game;
+			player.netId = game.nextNetId();
+			player.applyAppearance(assets);
+			player.x = startLocation.x + startLocation.width / 2f + (i / startLocations.length) * map.tileWidth;
+			player.y = startLocation.y + 2f;
+			player.flip(i % 2 == 1);
+			
+			game.addPlayer(player);
+		}
+		
+		for(int i = 0; i < spearCount; i += 1) {
+			final Spear spear = new Spear();
+			spear.netId = game.nextNetId();
+			spear.applyAppearance(assets);
+			launch(spear, startLocations[i % startLocations.length]);
+			
+			spears.add(spear);
+			game.addSpear(spear);
+		}
+	}
+	
+	private void step(final GameUpdate update,
+					  final Game game,
+					  final Array<Spear> spears,
+					  final int tick) {
+		
+		final Array<Player> players = game.players;
+		
+		for(int i = 0; i < players.size; i += 1) {
+			final Player player = players.get(i);
+			
+			if(!player.dead) {
+				// Each player turns around on its own period so they spread out over the map.
+				final int period = 90 + i * 7;
+				player.movementDirection = (tick / period) % 2 == 0 ? MovementDirection.Right : MovementDirection.Left;
+				player.requestsJump = (tick + i * 13) % 45 == 0;
+			}
+		}
+		
+		for(int i = 0; i < spears.size; i += 1) {
+			final Spear spear = spears.get(i);
+			
+			if(spear.movementDirection == MovementDirection.Idle || spear.spearIndex == -1) {
+				if(spear.spearIndex == -1) {
+					game.addSpear(spear);
+				}
+				
+				launch(spear, spear.x < map.tileWidth * map.mainLayer.tiles.width / 2f ? 
+							  map.findLocationByName("p1_start") : 
+							  map.findLocationByName("p2_start"));
+			}
+		}
+		
+		update.update(deltaTime, game, map);
+	}
+	
+	private void launch(final Spear spear,
+						final MapLocation from) {
+		
+		final float speed = Constants.JUMP_HEIGHT * 2f * map.tileHeight;
+		final float angle = (float) (random.nextFloat() * Math.PI);
+		
+		spear.x = from.x + random.nextFloat() * from.width;
+		spear.y = from.y + map.tileHeight * 2f;
+		spear.velocityX = (float) Math.cos(angle) * speed;
+		spear.velocityY = (float) Math.sin(angle) * speed;
+		spear.movementDirection = spear.velocityX < 0 ? MovementDirection.Left : MovementDirection.Right;
+		spear.isInAir = true;
+	}
+	
+	/**
+	 * Bytes allocated by the current thread so far, or -1 if the JVM can't tell.
+	 */
+	private long allocatedBytes() {
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+	@Override
+	public void resize(final int width, 
+					   final int height) {}
+	
+	@Override
+	public void render() {}
+	
+	@Override
+	public void pause() {}
+	
+	@Override
+	public void resume() {}
+	
+	@Override
+	public void dispose() {
+		if(assets != null) {
+			assets.dispose();
+		}
+	}
+	
+	public static void main(final String[] args) {
+		int[] players = { 2, 8, 32 };
+		int[] spears = { 0, 8, 32 };
+		int warmup = 5000;
+		int ticks = 20000;
+		int iterations = 5;
+		long seed = 1;
+		
+		for(final String arg : args) {
+			final int split = arg.indexOf('=');
+			
+			if(split == -1) {
+				throw new IllegalArgumentException("expected key=value: " + arg);
+			}
+			
+			final String key = arg.substring(0, split);
+			final String value = arg.substring(split + 1);
+			
+			if(key.equals("players")) {
+				players = parseCounts(value);
+			}
+			else if(key.equals("spears")) {
+				spears = parseCounts(value);
+			}
+			else if(key.equals("warmup")) {
+				warmup = Integer.parseInt(value);
+			}
+			else if(key.equals("ticks")) {
+				ticks = Integer.parseInt(value);
+			}
+			else if(key.equals("iterations")) {
+				iterations = Integer.parseInt(value);
+			}
+			else if(key.equals("seed")) {
+				seed = Long.parseLong(value);
+			}
+			else {
+				throw new IllegalArgumentException("unknown argument: " + key);
+			}
+		}
+		
+		final HeadlessApplicationConfiguration cfg = new HeadlessApplicationConfiguration();
+		// The benchmark runs inside create, no render loop needed.
+		cfg.renderInterval = -1f;
+		new HeadlessApplication(new GameUpdateBenchmark(players, spears, warmup, ticks, iterations, seed), cfg);
+	}
+	
+	private static int[] parseCounts(final String value) {
+		final String[] parts = value.split(",");
+		final int[] counts = new int[parts.length];
+		
+		for(int i = 0; i < parts.length; i += 1) {
+			counts[i] = Integer.parseInt(parts[i].trim());
+		}
+		
+		return counts;
+	}
+	
+}
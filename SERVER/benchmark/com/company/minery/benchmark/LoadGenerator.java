@@ -0,0 +1,602 @@
+package com.company.minery.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.badlogic.gdx.ApplicationListener;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.company.minery.Constants;
+import com.company.minery.game.GameAssets;
+import com.company.minery.game.map.Generator;
+import com.company.minery.game.map.Map;
+import com.company.minery.game.multiplayer.Multiplayer;
+import com.company.minery.game.multiplayer.SnapshotDelta;
+import com.company.minery.game.multiplayer.SnapshotHistory;
+import com.company.minery.game.multiplayer.messages.ClientAssignmentMessage;
+import com.company.minery.game.multiplayer.messages.ImpulseMessage;
+import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+import com.company.minery.game.multiplayer.messages.WorldStateQuantizer;
+import com.company.minery.utils.kryonet.Client;
+import com.company.minery.utils.kryonet.Connection;
+import com.company.minery.utils.kryonet.Listener;
+
+/**
+ * Connects simulated players to a running server. Every bot queues for a match like a real client, streams impulses over UDP
+ * and decodes the world states it gets back, so the server sees exactly the traffic of real players.
+ *
+ * Has to be started from the server's assets directory (world states are quantized relative to the test map), arguments are
+ * key=value pairs:
+ * bots=1000 host=localhost tcp=54555 udp=54777 rate=60 ramp=200 duration=60 script=random attack=0.01 threads=4 report=5 seed=1
+ *
+ * rate is impulses per second per bot, ramp is connects per second, duration and report are in seconds. script=patrol runs
+ * every bot back and forth on a fixed schedule instead of picking random moves.
+ *
+ * The loss column only counts snapshots the server sent, the ones its snapshot rate skipped for a bot are not lost.
+ *
+ * Bots are spread over a few pump threads instead of getting a thread each, the server's tick and not the bots should be
+ * the bottleneck. Each bot still owns a selector and a socket pair, raise the open file limit for large bot counts.
+ */
+public final class LoadGenerator implements ApplicationListener {
+	
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int PING_INTERVAL = 1000;
+	private static final int MAX_LATENCY = 1000;
+	
+	private final int botCount;
+	private final String host;
+	private final int tcpPort;
+	private final int udpPort;
+	private final float impulseRate;
+	private final float rampRate;
+	private final float duration;
+	private final boolean patrol;
+	private final float attackChance;
+	private final int threadCount;
+	private final float reportInterval;
+	private final long seed;
+	
+	private final Stats stats = new Stats();
+	private final WorldStateQuantizer quantizer = new WorldStateQuantizer();
+	
+	private GameAssets assets;
+	private Map map;
+	
+	public LoadGenerator(final int botCount,
+						 final String host,
+						 final int tcpPort,
+						 final int udpPort,
+						 final float impulseRate,
+						 final float rampRate,
+						 final float duration,
+						 final boolean patrol,
+						 final float attackChance,
+						 final int threadCount,
+						 final float reportInterval,
+						 final long seed) {
+		
+		this.botCount = botCount;
+		this.host = host;
+		this.tcpPort = tcpPort;
+		this.udpPort = udpPort;
+		this.impulseRate = impulseRate;
+		this.rampRate = rampRate;
+		this.duration = duration;
+		this.patrol = patrol;
+		this.attackChance = attackChance;
+		this.threadCount = threadCount;
+		this.reportInterval = reportInterval;
+		this.seed = seed;
+	}
+	
+	@Override
+	public void create() {
+		assets = new GameAssets();
+		map = Generator.generateTestMap(assets);
+		quantizer.setMap(map);
+		
+		final Bot[] bots = new Bot[botCount];
+		final Pump[] pumps = new Pump[threadCount];
+		
+		for(int i = 0; i < pumps.length; i += 1) {
+			pumps[i] = new Pump("LoadGenerator pump " + i);
+		}
+		
+		for(int i = 0; i < bots.length; i += 1) {
+			bots[i] = new Bot(i, new Random(seed + i));
+			pumps[i % pumps.length].add(bots[i]);
+		}
+		
+		for(int i = 0; i < pumps.length; i += 1) {
+			pumps[i].start();
+		}
+		
+		System.out.println("Load generator: " + botCount + " bots against " + host + ":" + tcpPort + "/" + udpPort);
+		System.out.println("  time  connected  in game  failed   impulses/s  snapshots/s    loss %  age p50  age p99  rtt avg");
+		
+		final long startTime = System.nanoTime();
+		final long endTime = startTime + (long) (duration * 1000000000L);
+		final long reportNanos = (long) (reportInterval * 1000000000L);
+		final long rampNanos = rampRate > 0 ? (long) (1000000000L / rampRate) : 0;
+		
+		long nextReport = startTime + reportNanos;
+		int nextBot = 0;
+		
+		stats.reset();
+		
+		while(System.nanoTime() < endTime) {
+			final long now = System.nanoTime();
+			
+			// Connecting blocks until the server answered, the pumps keep updating the clients meanwhile.
+			if(nextBot < bots.length && now - startTime >= nextBot * rampNanos) {
+				bots[nextBot].connect();
+				nextBot += 1;
+			}
+			else if(now >= nextReport) {
+				report((now - startTime) / 1000000000f, reportInterval);
+				nextReport += reportNanos;
+			}
+			else {
+				sleepQuietly(1);
+			}
+		}
+		
+		for(int i = 0; i < pumps.length; i += 1) {
+			pumps[i].finish();
+		}
+		
+		for(int i = 0; i < bots.length; i += 1) {
+			bots[i].close();
+		}
+		
+		System.out.println("Load generator done.");
+	}
+	
+	private void report(final float time,
+						final float interval) {
+		
+		final long received = stats.snapshotsReceived.getAndSet(0);
+		final long missed = stats.snapshotsMissed.getAndSet(0);
+		final long impulses = stats.impulsesSent.getAndSet(0);
+		final long rttSum = stats.rttSum.getAndSet(0);
+		final long rttCount = stats.rttCount.getAndSet(0);
+		final int[] latencies = stats.drainLatencies();
+		
+		final float loss = received + missed > 0 ? 100f * missed / (received + missed) : 0;
+		
+		System.out.println(String.format("%6.0f %10d %8d %7d %12.0f %12.0f %9.2f %8s %8s %8s",
+										 time,
+										 stats.connected.get(),
+										 stats.inGame.get(),
+										 stats.connectFailures.get(),
+										 impulses / interval,
+										 received / interval,
+										 loss,
+										 formatLatency(percentile(latencies, 0.5f)),
+										 formatLatency(percentile(latencies, 0.99f)),
+										 rttCount > 0 ? (rttSum / rttCount) + "ms" : "-"));
+	}
+	
+	private static int percentile(final int[] histogram,
+								  final float percentile) {
+		
+		long total = 0;
+		
+		for(int i = 0; i < histogram.length; i += 1) {
+			total += histogram[i];
+		}
+		
+		if(total == 0) {
+			return -1;
+		}
+		
+		final long target = (long) Math.ceil(total * percentile);
+		long count = 0;
+		
+		for(int i = 0; i < histogram.length; i += 1) {
+			count += histogram[i];
+			
+			if(count >= target) {
+				return i;
+			}
+		}
+		
+		return histogram.length - 1;
+	}
+	
+	private static String formatLatency(final int latency) {
+		if(latency < 0) {
+			return "-";
+		}
+		return latency >= MAX_LATENCY ? ">" + MAX_LATENCY + "ms" : latency + "ms";
+	}
+	
+	private static void sleepQuietly(final long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch(final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Counters shared by all bots, reset by every report.
+	 */
+	private static final class Stats {
+		
+		final AtomicInteger connected = new AtomicInteger();
+		final AtomicInteger inGame = new AtomicInteger();
+		final AtomicInteger connectFailures = new AtomicInteger();
+		final AtomicLong impulsesSent = new AtomicLong();
+		final AtomicLong snapshotsReceived = new AtomicLong();
+		final AtomicLong snapshotsMissed = new AtomicLong();
+		final AtomicLong rttSum = new AtomicLong();
+		final AtomicLong rttCount = new AtomicLong();
+		
+		// Snapshot age in milliseconds, the last bucket collects everything above MAX_LATENCY.
+		final AtomicIntegerArray latencies = new AtomicIntegerArray(MAX_LATENCY + 1);
+		
+		void recordLatency(final long latency) {
+			latencies.incrementAndGet((int) Math.max(0, Math.min(MAX_LATENCY, latency)));
+		}
+		
+		int[] drainLatencies() {
+			final int[] histogram = new int[latencies.length()];
+			
+			for(int i = 0; i < histogram.length; i += 1) {
+				histogram[i] = latencies.getAndSet(i, 0);
+			}
+			
+			return histogram;
+		}
+		
+		void reset() {
+			impulsesSent.set(0);
+			snapshotsReceived.set(0);
+			snapshotsMissed.set(0);
+			rttSum.set(0);
+			rttCount.set(0);
+			drainLatencies();
+		}
+	
+	}
+	
+	/**
+	 * Updates its bots' clients and sends their impulses, listener callbacks run on this thread too.
+	 */
+	private final class Pump extends Thread {
+		
+		private Bot[] bots = new Bot[0];
+		private volatile boolean running = true;
+		
+		Pump(final String name) {
+			super(name);
+			setDaemon(true);
+		}
+		
+		void add(final Bot bot) {
+			final Bot[] grown = new Bot[bots.length + 1];
+			System.arraycopy(bots, 0, grown, 0, bots.length);
+			grown[bots.length] = bot;
+			bots = grown;
+		}
+		
+		void finish() {
+			running = false;
+			
+			try {
+				join();
+			}
+			catch(final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		@Override
+		public void run() {
+			while(running) {
+				final long now = System.nanoTime();
+				long nextWake = now + 1000000L;
+				
+				for(int i = 0; i < bots.length; i += 1) {
+					nextWake = Math.min(nextWake, bots[i].pump(now));
+				}
+				
+				final long wait = nextWake - System.nanoTime();
+				
+				if(wait > 0) {
+					sleepQuietly(wait / 1000000L);
+				}
+			}
+		}
+	
+	}
+	
+	private final class Bot extends Listener {
+		
+		private final int index;
+		private final Random random;
+		private final Client client;
+		private final long impulseNanos;
+		
+		private final SnapshotHistory snapshots = new SnapshotHistory(Constants.SNAPSHOT_HISTORY_SIZE);
+		private final ImpulseMessage impulse = new ImpulseMessage();
+		
+		// Set by the connecting thread once connect returned, read by the pump.
+		private volatile boolean started;
+		
+		private boolean inGame;
+		private int latestSnapshot = WorldStateMessage.NO_BASELINE;
+		private long nextImpulse;
+		private long nextPing;
+		private long nextDecision;
+		private byte movement = ImpulseMessage.FLAG_MOVE_IDLE;
+		private int impulseCount;
+		
+		Bot(final int index,
+			final Random random) {
+			
+			this.index = index;
+			this.random = random;
+			this.impulseNanos = impulseRate > 0 ? (long) (1000000000L / impulseRate) : Long.MAX_VALUE;
+			
+			client = new Client();
+			client.addListener(this);
+			client.setUdpConnectionIDPrefix(Constants.UDP_CONNECTION_ID_PREFIX);
+			client.setUdpBatching(Constants.UDP_BATCH_SIZE > 0);
+			Multiplayer.register(client, quantizer);
+			
+			impulse.scale = 1f;
+		}
+		
+		void connect() {
+			try {
+				client.connect(CONNECT_TIMEOUT, host, tcpPort, udpPort);
+				started = true;
+			}
+			catch(final IOException ex) {
+				stats.connectFailures.incrementAndGet();
+				System.out.println("Bot " + index + " failed to connect: " + ex.getMessage());
+			}
+		}
+		
+		void close() {
+			client.close();
+		}
+		
+		/**
+		 * Returns when this bot wants to be pumped again.
+		 */
+		long pump(final long now) {
+			try {
+				client.update(0);
+			}
+			catch(final IOException ex) {
+				client.close();
+			}
+			
+			if(!started || !client.isConnected()) {
+				return now + 1000000L;
+			}
+			
+			if(now >= nextPing) {
+				client.updateReturnTripTime();
+				nextPing = now + PING_INTERVAL * 1000000L;
+				
+				if(client.getReturnTripTime() >= 0) {
+					stats.rttSum.addAndGet(client.getReturnTripTime());
+					stats.rttCount.incrementAndGet();
+				}
+			}
+			
+			if(inGame && now >= nextImpulse) {
+				sendImpulse(now);
+				// Catching up after a stall would only burst, skip the missed impulses instead.
+				nextImpulse = Math.max(nextImpulse + impulseNanos, now);
+			}
+			
+			return inGame ? Math.min(nextImpulse, nextPing) : nextPing;
+		}
+		
+		private void sendImpulse(final long now) {
+			if(patrol) {
+				// Everyone turns around on its own period so they spread out over the map.
+				final int period = 90 + (index % 16) * 7;
+				movement = (impulseCount / period) % 2 == 0 ? ImpulseMessage.FLAG_MOVE_RIGHT : ImpulseMessage.FLAG_MOVE_LEFT;
+				impulse.jumpFlag = (impulseCount + index * 13) % 45 == 0;
+			}
+			else {
+				if(now >= nextDecision) {
+					movement = (byte) random.nextInt(3);
+					nextDecision = now + 500000000L + (long) (random.nextFloat() * 1500000000L);
+				}
+				impulse.jumpFlag = random.nextInt(30) == 0;
+			}
+			
+			impulse.attackFlag = random.nextFloat() < attackChance;
+			
+			if(impulse.attackFlag) {
+				impulse.attackX = random.nextFloat() * map.mainLayer.tiles.width * map.tileWidth;
+				impulse.attackY = random.nextFloat() * map.mainLayer.tiles.height * map.tileHeight;
+			}
+			
+			impulse.movementFlag = movement;
+			impulse.messageTime = System.currentTimeMillis();
+			impulse.acknowledgedSnapshot = latestSnapshot;
+			impulse.receivedMask = snapshots.receivedMask(latestSnapshot);
+			impulse.sequence = impulseCount + 1;
+			
+			client.sendUDP(impulse);
+			
+			impulseCount += 1;
+			stats.impulsesSent.incrementAndGet();
+		}
+		
+		@Override
+		public void connected(final Connection connection) {
+			stats.connected.incrementAndGet();
+		}
+		
+		@Override
+		public void disconnected(final Connection connection) {
+			stats.connected.decrementAndGet();
+			
+			if(inGame) {
+				inGame = false;
+				stats.inGame.decrementAndGet();
+			}
+		}
+		
+		@Override
+		public void received(final Connection connection,
+							 final Object object) {
+			
+			if(object instanceof ClientAssignmentMessage) {
+				if(!inGame) {
+					inGame = true;
+					stats.inGame.incrementAndGet();
+				}
+				
+				snapshots.clear();
+				latestSnapshot = WorldStateMessage.NO_BASELINE;
+				nextImpulse = System.nanoTime();
+			}
+			else if(object instanceof WorldStateMessage) {
+				receiveWorldState((WorldStateMessage) object);
+			}
+		}
+		
+		private void receiveWorldState(final WorldStateMessage received) {
+			final WorldStateMessage baseline = snapshots.get(received.baseline);
+			
+			if(received.baseline != WorldStateMessage.NO_BASELINE && baseline == null) {
+				// Undecodable, counts as lost until the server falls back to a full state.
+				stats.snapshotsMissed.incrementAndGet();
+				return;
+			}
+			
+			final WorldStateMessage worldState = SnapshotDelta.decode(received, baseline);
+			snapshots.put(worldState);
+			
+			stats.snapshotsReceived.incrementAndGet();
+			stats.recordLatency(System.currentTimeMillis() - worldState.messageTime);
+			
+			if(latestSnapshot == WorldStateMessage.NO_BASELINE) {
+				latestSnapshot = worldState.sequence;
+			}
+			else if(worldState.sequence > latestSnapshot) {
+				// Only snapshots the server sent can be lost, not the ones its snapshot rate skipped for this bot. Sequences
+				// older than the mask are taken as sent.
+				final int gap = worldState.sequence - latestSnapshot - 1;
+				final int gapMask = gap >= Integer.SIZE ? -1 : (1 << gap) - 1;
+				
+				stats.snapshotsMissed.addAndGet(gap - Integer.bitCount(received.skippedMask & gapMask));
+				latestSnapshot = worldState.sequence;
+			}
+			else {
+				// Counted as missed when the gap opened, it only arrived late.
+				stats.snapshotsMissed.decrementAndGet();
+			}
+		}
+	
+	}
+	
+	@Override
+	public void resize(final int width,
+					   final int height) {}
+	
+	@Override
+	public void render() {}
+	
+	@Override
+	public void pause() {}
+	
+	@Override
+	public void resume() {}
+	
+	@Override
+	public void dispose() {
+		if(assets != null) {
+			assets.dispose();
+		}
+	}
+	
+	public static void main(final String[] args) {
+		int bots = 100;
+		String host = "localhost";
+		int tcp = Constants.DEFAULT_TCP_PORT;
+		int udp = Constants.DEFAULT_UDP_PORT;
+		float rate = Constants.TICK_RATE;
+		float ramp = 100;
+		float duration = 60;
+		boolean patrol = false;
+		float attack = 0.01f;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		float report = 5;
+		long seed = 1;
+		
+		for(final String arg : args) {
+			final int split = arg.indexOf('=');
+			
+			if(split == -1) {
+				throw new IllegalArgumentException("expected key=value: " + arg);
+			}
+			
+			final String key = arg.substring(0, split);
+			final String value = arg.substring(split + 1);
+			
+			if(key.equals("bots")) {
+				bots = Integer.parseInt(value);
+			}
+			else if(key.equals("host")) {
+				host = value;
+			}
+			else if(key.equals("tcp")) {
+				tcp = Integer.parseInt(value);
+			}
+			else if(key.equals("udp")) {
+				udp = Integer.parseInt(value);
+			}
+			else if(key.equals("rate")) {
+				rate = Float.parseFloat(value);
+			}
+			else if(key.equals("ramp")) {
+				ramp = Float.parseFloat(value);
+			}
+			else if(key.equals("duration")) {
+				duration = Float.parseFloat(value);
+			}
+			else if(key.equals("script")) {
+				if(!value.equals("random") && !value.equals("patrol")) {
+					throw new IllegalArgumentException("unknown script: " + value);
+				}
+				patrol = value.equals("patrol");
+			}
+			else if(key.equals("attack")) {
+				attack = Float.parseFloat(value);
+			}
+			else if(key.equals("threads")) {
+				threads = Integer.parseInt(value);
+			}
+			else if(key.equals("report")) {
+				report = Float.parseFloat(value);
+			}
+			else if(key.equals("seed")) {
+				seed = Long.parseLong(value);
+			}
+			else {
+				throw new IllegalArgumentException("unknown argument: " + key);
+			}
+		}
+		
+		final HeadlessApplicationConfiguration cfg = new HeadlessApplicationConfiguration();
+		// The generator runs inside create, no render loop needed.
+		cfg.renderInterval = -1f;
+		new HeadlessApplication(new LoadGenerator(bots, host, tcp, udp, rate, ramp, duration, patrol, attack, threads, report, seed), cfg);
+	}
+
+}
@@ -0,0 +1,240 @@
+package com.company.minery.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.company.minery.utils.kryonet.Client;
+import com.company.minery.utils.kryonet.Connection;
+import com.company.minery.utils.kryonet.KryoSerialization;
+import com.company.minery.utils.kryonet.Listener;
+import com.company.minery.utils.kryonet.Server;
+import com.esotericsoftware.kryo.Kryo;
+
+/**
+ * Measures the server side cost of TCP sends with heap and with pooled direct buffers, see {@link Server#setDirectBuffers}.
+ * Clients connect over loopback and only count what they receive. Each round sends one message to every client, either
+ * serialized per connection or once for all of them, and the sender waits whenever too many messages are still in flight so
+ * write queues never overflow. The queue column shows the memory taken by TCP write queues, which grows with the bytes
+ * queued at once rather than with the number of clients.
+ * 
+ * Arguments are key=value pairs:
+ * clients=32 size=64 duration=5000 warmup=2000 port=54600
+ */
+public final class TcpWriteBenchmark {
+	
+	private static final int WRITE_BUFFER_SIZE = 16384;
+	private static final int OBJECT_BUFFER_SIZE = 2048;
+	
+	private final int clientCount;
+	private final int messageSize;
+	private final long durationMillis;
+	private final long warmupMillis;
+	private final int port;
+	
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	
+	public TcpWriteBenchmark(final int clientCount,
+							 final int messageSize,
+							 final long durationMillis,
+							 final long warmupMillis,
+							 final int port) {
+		
+		this.clientCount = clientCount;
+		this.messageSize = messageSize;
+		this.durationMillis = durationMillis;
+		this.warmupMillis = warmupMillis;
+		this.port = port;
+	}
+	
+	public void run() throws IOException {
+		System.out.println("buffers  send        messages/s   cpu ns/msg    B/msg   off heap KB   queue KB");
+		
+		for(final boolean direct : new boolean[] { false, true }) {
+			for(final boolean broadcast : new boolean[] { false, true }) {
+				run(direct, broadcast);
+			}
+		}
+	}
+	
+	private void run(final boolean direct,
+					 final boolean broadcast) throws IOException {
+		
+		final Server server = new Server(WRITE_BUFFER_SIZE, OBJECT_BUFFER_SIZE, newSerialization(), 1);
+		server.setDirectBuffers(direct);
+		server.bind(port);
+		server.start();
+		
+		final AtomicLong received = new AtomicLong();
+		final Client[] clients = new Client[clientCount];
+		
+		for(int i = 0; i < clientCount; i += 1) {
+			final Client client = new Client(WRITE_BUFFER_SIZE, OBJECT_BUFFER_SIZE, newSerialization());
+			
+			client.addListener(new Listener() {
+				
+				@Override
+				public void received(final Connection connection,
+									 final Object object) {
+					
+					if(object instanceof byte[]) {
+						received.incrementAndGet();
+					}
+				}
+				
+			});
+			client.start();
+			client.connect(5000, "127.0.0.1", port);
+			clients[i] = client;
+		}
+		
+		while(server.getConnections().length < clientCount) {
+			Thread.yield();
+		}
+		
+		final byte[] payload = new byte[messageSize];
+		// Half of a write buffer per connection may be in flight, the rest is head room.
+		final long window = (long) clientCount * Math.max(1, WRITE_BUFFER_SIZE / 2 / (messageSize + 8));
+		
+		send(server, payload, broadcast, received, window, warmupMillis);
+		
+		final long startCpu = threads.getCurrentThreadCpuTime();
+		final long startBytes = allocatedBytes();
+		final long startTime = System.nanoTime();
+		
+		final long sent = send(server, payload, broadcast, received, window, durationMillis);
+		
+		final long time = System.nanoTime() - startTime;
+		final long cpu = threads.getCurrentThreadCpuTime() - startCpu;
+		final long bytes = allocatedBytes() - startBytes;
+		
+		System.out.println(String.format("%-8s %-10s %11.0f %12.0f %8.1f %13d %10d",
+										 direct ? "direct" : "heap",
+										 broadcast ? "broadcast" : "each",
+										 sent * 1e9 / time,
+										 (double) cpu / sent,
+										 startBytes < 0 ? Double.NaN : (double) bytes / sent,
+										 server.getDirectBufferBytes() / 1024, 
+										 server.getWriteQueueBytes() / 1024));
+		
+		for(int i = 0; i < clientCount; i += 1) {
+			clients[i].stop();
+		}
+		server.stop();
+		
+		try {
+			// The selectors can only be closed once the server thread saw the stop.
+			server.getUpdateThread().join();
+		}
+		catch(final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		server.dispose();
+	}
+	
+	/**
+	 * Sends rounds of one message per client for the given time, returns the number of messages sent.
+	 */
+	private long send(final Server server,
+					  final byte[] payload,
+					  final boolean broadcast,
+					  final AtomicLong received,
+					  final long window,
+					  final long millis) {
+		
+		final Connection[] connections = server.getConnections();
+		final long end = System.currentTimeMillis() + millis;
+		final long receivedBefore = received.get();
+		long sent = 0;
+		
+		while(System.currentTimeMillis() < end) {
+			if(broadcast) {
+				server.sendToAllTCP(payload);
+			}
+			else {
+				for(int i = 0; i < connections.length; i += 1) {
+					connections[i].sendTCP(payload);
+				}
+			}
+			sent += connections.length;
+			
+			while(sent - (received.get() - receivedBefore) > window) {
+				Thread.yield();
+			}
+		}
+		
+		// Drain so the next measurement starts with empty buffers.
+		while(received.get() - receivedBefore < sent) {
+			Thread.yield();
+		}
+		
+		return sent;
+	}
+	
+	private static KryoSerialization newSerialization() {
+		final KryoSerialization serialization = new KryoSerialization();
+		
+		serialization.addRegistrar(new KryoSerialization.Registrar() {
+			
+			@Override
+			public void register(final Kryo kryo) {
+				kryo.register(byte[].class);
+			}
+			
+		});
+		
+		return serialization;
+	}
+	
+	/**
+	 * Bytes allocated by the current thread so far, or -1 if the JVM can't tell.
+	 */
+	private long allocatedBytes() {
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+	public static void main(final String[] args) throws IOException {
+		int clients = 32;
+		int size = 64;
+		long duration = 5000;
+		long warmup = 2000;
+		int port = 54600;
+		
+		for(final String arg : args) {
+			final int split = arg.indexOf('=');
+			
+			if(split == -1) {
+				throw new IllegalArgumentException("expected key=value: " + arg);
+			}
+			
+			final String key = arg.substring(0, split);
+			final String value = arg.substring(split + 1);
+			
+			if(key.equals("clients")) {
+				clients = Integer.parseInt(value);
+			}
+			else if(key.equals("size")) {
+				size = Integer.parseInt(value);
+			}
+			else if(key.equals("duration")) {
+				duration = Long.parseLong(value);
+			}
+			else if(key.equals("warmup")) {
+				warmup = Long.parseLong(value);
+			}
+			else if(key.equals("port")) {
+				port = Integer.parseInt(value);
+			}
+			else {
+				throw new IllegalArgumentException("unknown argument: " + key);
+			}
+		}
+		
+		new TcpWriteBenchmark(clients, size, duration, warmup, port).run();
+	}
+	
+}
@@ -0,0 +1,307 @@
+package com.company.minery.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.badlogic.gdx.ApplicationListener;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.company.minery.Constants;
+import com.company.minery.game.GameAssets;
+import com.company.minery.game.map.Generator;
+import com.company.minery.game.multiplayer.GameServer;
+import com.company.minery.game.multiplayer.Multiplayer;
+import com.company.minery.game.multiplayer.SnapshotDelta;
+import com.company.minery.game.multiplayer.SnapshotHistory;
+import com.company.minery.game.multiplayer.messages.ClientAssignmentMessage;
+import com.company.minery.game.multiplayer.messages.ImpulseMessage;
+import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+import com.company.minery.game.multiplayer.messages.WorldStateQuantizer;
+import com.company.minery.utils.kryonet.Client;
+import com.company.minery.utils.kryonet.Connection;
+import com.company.minery.utils.kryonet.Listener;
+
+/**
+ * Checks that the server's tick doesn't allocate once its games are running. A {@link GameServer} is started in process and
+ * bots play against it over loopback, then {@link GameServer#update(float)} is driven at the tick rate and the bytes allocated
+ * by the ticking thread and the game worker threads are measured over the measured ticks. Bots only walk and jump, so no game
+ * ends and no new one is set up while measuring. Exits with status 1 if anything was allocated.
+ *
+ * Run it with -Xint. With the JIT the JVM itself now and then allocates a few bytes on the ticking thread when compiled code
+ * first takes a rare path, and escape analysis could hide allocations the code still makes.
+ *
+ * Has to be started from the server's assets directory, arguments are key=value pairs:
+ * bots=8 warmup=1200 ticks=3600 tcp=54655 udp=54877
+ */
+public final class TickAllocationCheck implements ApplicationListener {
+	
+	private static final int CONNECT_TIMEOUT = 5000;
+	
+	private final int botCount;
+	private final int warmupTicks;
+	private final int measuredTicks;
+	private final int tcpPort;
+	private final int udpPort;
+	
+	private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private final AtomicInteger snapshotsReceived = new AtomicInteger();
+	
+	private GameAssets assets;
+	
+	public TickAllocationCheck(final int botCount,
+							   final int warmupTicks,
+							   final int measuredTicks,
+							   final int tcpPort,
+							   final int udpPort) {
+		
+		this.botCount = botCount;
+		this.warmupTicks = warmupTicks;
+		this.measuredTicks = measuredTicks;
+		this.tcpPort = tcpPort;
+		this.udpPort = udpPort;
+	}
+	
+	@Override
+	public void create() {
+		final GameServer server = new GameServer();
+		
+		if(!server.begin(tcpPort, udpPort)) {
+			System.exit(1);
+		}
+		
+		assets = new GameAssets();
+		
+		final WorldStateQuantizer quantizer = new WorldStateQuantizer();
+		quantizer.setMap(Generator.generateTestMap(assets));
+		
+		for(int i = 0; i < botCount; i += 1) {
+			new Bot(i, quantizer).connect();
+		}
+		
+		// Workers run shards 1 and up, their allocations count as the tick's.
+		final long[] workerIds = findThreads("GameWorker-");
+		final long threadId = Thread.currentThread().getId();
+		final float tickTime = 1f / Constants.TICK_RATE;
+		final long tickNanos = 1000000000L / Constants.TICK_RATE;
+		long nextTick = System.nanoTime();
+		long[] workerStartBytes = null;
+		long startBytes = 0;
+		
+		for(int tick = 0; tick < warmupTicks + measuredTicks; tick += 1) {
+			if(tick == warmupTicks) {
+				// Reading other threads allocates the result on this one, so that goes before this thread's baseline.
+				workerStartBytes = threads.getThreadAllocatedBytes(workerIds);
+				startBytes = threads.getThreadAllocatedBytes(threadId);
+				snapshotsReceived.set(0);
+			}
+			
+			server.update(tickTime);
+			
+			nextTick += tickNanos;
+			final long wait = nextTick - System.nanoTime();
+			
+			if(wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+		}
+		
+		final long tickBytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+		final long[] workerEndBytes = threads.getThreadAllocatedBytes(workerIds);
+		final int received = snapshotsReceived.get();
+		long allocatedBytes = tickBytes;
+		
+		for(int i = 0; i < workerIds.length; i += 1) {
+			allocatedBytes += workerEndBytes[i] - workerStartBytes[i];
+		}
+		
+		server.end();
+		
+		System.out.println(String.format("%d workers, %d ticks, %d snapshots received: %d bytes allocated, %.1f B/tick",
+										 workerIds.length,
+										 measuredTicks,
+										 received,
+										 allocatedBytes,
+										 (double) allocatedBytes / measuredTicks));
+		
+		if(received == 0) {
+			System.out.println("FAILED: no match was running");
+			System.exit(1);
+		}
+		if(allocatedBytes != 0) {
+			System.out.println("FAILED: the tick allocated");
+			System.exit(1);
+		}
+		
+		System.out.println("OK");
+		System.exit(0);
+	}
+	
+	private long[] findThreads(final String prefix) {
+		final ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds());
+		int count = 0;
+		
+		for(int i = 0; i < infos.length; i += 1) {
+			if(infos[i] != null && infos[i].getThreadName().startsWith(prefix)) {
+				infos[count++] = infos[i];
+			}
+		}
+		
+		final long[] ids = new long[count];
+		
+		for(int i = 0; i < count; i += 1) {
+			ids[i] = infos[i].getThreadId();
+		}
+		
+		return ids;
+	}
+	
+	/**
+	 * Walks back and forth and acknowledges every world state it decoded, impulses are sent as snapshots arrive.
+	 */
+	private final class Bot extends Listener {
+		
+		private final int index;
+		private final Client client;
+		private final SnapshotHistory snapshots = new SnapshotHistory(Constants.SNAPSHOT_HISTORY_SIZE);
+		private final ImpulseMessage impulse = new ImpulseMessage();
+		
+		private int latestSnapshot = WorldStateMessage.NO_BASELINE;
+		private int impulseCount;
+		
+		Bot(final int index,
+			final WorldStateQuantizer quantizer) {
+			
+			this.index = index;
+			
+			client = new Client();
+			client.addListener(this);
+			client.setUdpConnectionIDPrefix(Constants.UDP_CONNECTION_ID_PREFIX);
+			client.setUdpBatching(Constants.UDP_BATCH_SIZE > 0);
+			Multiplayer.register(client, quantizer);
+			
+			impulse.scale = 1f;
+		}
+		
+		void connect() {
+			client.start();
+			
+			try {
+				client.connect(CONNECT_TIMEOUT, "localhost", tcpPort, udpPort);
+			}
+			catch(final IOException ex) {
+				System.out.println("Bot " + index + " failed to connect: " + ex.getMessage());
+			}
+		}
+		
+		@Override
+		public void received(final Connection connection,
+							 final Object object) {
+			
+			if(object instanceof ClientAssignmentMessage) {
+				snapshots.clear();
+				latestSnapshot = WorldStateMessage.NO_BASELINE;
+			}
+			else if(object instanceof WorldStateMessage) {
+				final WorldStateMessage received = (WorldStateMessage) object;
+				final WorldStateMessage baseline = snapshots.get(received.baseline);
+				
+				if(received.baseline != WorldStateMessage.NO_BASELINE && baseline == null) {
+					return;
+				}
+				
+				final WorldStateMessage worldState = SnapshotDelta.decode(received, baseline);
+				snapshots.put(worldState);
+				snapshotsReceived.incrementAndGet();
+				
+				if(latestSnapshot == WorldStateMessage.NO_BASELINE || worldState.sequence > latestSnapshot) {
+					latestSnapshot = worldState.sequence;
+				}
+				
+				sendImpulse();
+			}
+		}
+		
+		private void sendImpulse() {
+			// Everyone turns around on its own period so they spread out over the map.
+			final int period = 90 + (index % 16) * 7;
+			impulse.movementFlag = (impulseCount / period) % 2 == 0 ? ImpulseMessage.FLAG_MOVE_RIGHT : ImpulseMessage.FLAG_MOVE_LEFT;
+			impulse.jumpFlag = (impulseCount + index * 13) % 45 == 0;
+			impulse.messageTime = System.currentTimeMillis();
+			impulse.acknowledgedSnapshot = latestSnapshot;
+			impulse.receivedMask = snapshots.receivedMask(latestSnapshot);
+			impulse.sequence = impulseCount + 1;
+			
+			client.sendUDP(impulse);
+			
+			impulseCount += 1;
+		}
+		
+	}
+	
+	@Override
+	public void resize(final int width,
+					   final int height) {}
+	
+	@Override
+	public void render() {}
+	
+	@Override
+	public void pause() {}
+	
+	@Override
+	public void resume() {}
+	
+	@Override
+	public void dispose() {
+		if(assets != null) {
+			assets.dispose();
+		}
+	}
+	
+	public static void main(final String[] args) {
+		int bots = 8;
+		int warmup = Constants.TICK_RATE * 20;
+		int ticks = Constants.TICK_RATE * 60;
+		int tcp = 54655;
+		int udp = 54877;
+		
+		for(final String arg : args) {
+			final int split = arg.indexOf('=');
+			
+			if(split == -1) {
+				throw new IllegalArgumentException("expected key=value: " + arg);
+			}
+			
+			final String key = arg.substring(0, split);
+			final String value = arg.substring(split + 1);
+			
+			if(key.equals("bots")) {
+				bots = Integer.parseInt(value);
+			}
+			else if(key.equals("warmup")) {
+				warmup = Integer.parseInt(value);
+			}
+			else if(key.equals("ticks")) {
+				ticks = Integer.parseInt(value);
+			}
+			else if(key.equals("tcp")) {
+				tcp = Integer.parseInt(value);
+			}
+			else if(key.equals("udp")) {
+				udp = Integer.parseInt(value);
+			}
+			else {
+				throw new IllegalArgumentException("unknown argument: " + key);
+			}
+		}
+		
+		final HeadlessApplicationConfiguration cfg = new HeadlessApplicationConfiguration();
+		// The check runs inside create, no render loop needed.
+		cfg.renderInterval = -1f;
+		new HeadlessApplication(new TickAllocationCheck(bots, warmup, ticks, tcp, udp), cfg);
+	}
+	
+}
@@ -3,15 +3,53 @@ package com.company.minery;
 import com.badlogic.gdx.ApplicationListener;
 import com.badlogic.gdx.Gdx;
 import com.company.minery.game.multiplayer.GameServer;
+import com.company.minery.utils.TickScheduler;
 
 public class App implements ApplicationListener {
 	
 	private GameServer server;
+	private TickScheduler scheduler;
+	private Thread tickThread;
 	
 	@Override
 	public void create() {
 		server = new GameServer();
-		server.begin(Constants.DEFAULT_TCP_PORT, Constants.DEFAULT_UDP_PORT);
+		
+		if(!server.begin(Constants.DEFAULT_TCP_PORT, Constants.DEFAULT_UDP_PORT)) {
+			// Nothing would ever tick, exit so dispose stops the kryonet thread.
+			Gdx.app.exit();
+			return;
+		}
+		
+		scheduler = new TickScheduler(Constants.TICK_RATE, 
+									  Constants.MAX_CATCH_UP_TICKS, 
+									  Constants.TICK_SPIN_NANOS, 
+									  Constants.TICK_REPORT_TIME);
+		
+		// The scheduler owns its own thread, the headless loop stays free to handle exit() and call dispose().
+		tickThread = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					scheduler.run(new TickScheduler.Tick() {
+						
+						@Override
+						public void tick(final float deltaTime) {
+							server.update(deltaTime);
+						}
+						
+					});
+				}
+				catch(final Throwable ex) {
+					// A failed tick leaves the games half simulated, don't keep the server running without ticks.
+					ex.printStackTrace();
+					Gdx.app.exit();
+				}
+			}
+			
+		}, "Server tick");
+		tickThread.start();
 	}
 
 	@Override
@@ -19,10 +57,7 @@ public class App implements ApplicationListener {
 					   final int height) {}
 	
 	@Override
-	public void render() {
-		final float deltaTime = Gdx.graphics.getDeltaTime();
-		server.update(deltaTime > 1f / 30f ? 1f / 30f : deltaTime);
-	}
+	public void render() {}
 
 	@Override
 	public void pause() {}
@@ -32,6 +67,17 @@ public class App implements ApplicationListener {
 	
 	@Override
 	public void dispose() {
+		if(scheduler != null) {
+			scheduler.stop();
+			
+			try {
+				// The server can only be ended once the last tick finished.
+				tickThread.join();
+			}
+			catch(final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
 		server.end();
 	}
 	
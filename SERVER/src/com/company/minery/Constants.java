@@ -36,5 +36,37 @@ public final class Constants {
 	public static final long DEAD_GAME_TIME = 300000;
 	public static final int DEFAULT_TCP_PORT = 54555;
 	public static final int DEFAULT_UDP_PORT = 54777;
+	public static final int SNAPSHOT_HISTORY_SIZE = 32; // World states kept per client as delta baselines
+	public static final boolean UDP_CONNECTION_ID_PREFIX = true; // Clients prefix datagrams with their connection id, must match the client
+	public static final int UDP_BATCH_SIZE = 1200; // Bytes of a tick's messages to a client packed into one datagram, 0 disables, must match the client
+	
+	// *************************
+	// SERVER
+	// *************************
+	public static final int TICK_RATE = 60; // Ticks per second
+	public static final int MAX_CATCH_UP_TICKS = 5; // Ticks run back to back before the backlog is dropped
+	public static final long TICK_SPIN_NANOS = 1000000L; // Yield instead of park this close to a tick
+	public static final float TICK_REPORT_TIME = 10f; // Seconds between tick stat reports
+	public static final int SIMULATION_THREADS = Runtime.getRuntime().availableProcessors(); // Game simulation shards
+	public static final int NETWORK_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 4); // TCP selector threads, 0 keeps all I/O on one thread
+	public static final int TCP_WRITE_QUEUE_SIZE = 16384; // Bytes queued for a client's TCP socket before it is dropped
+	public static final int TCP_HIGH_WATERMARK = 8192; // Queued TCP bytes above which a client is congested and skips snapshots
+	public static final int TCP_LOW_WATERMARK = 4096; // Queued TCP bytes at which a congested client gets snapshots again
+	public static final boolean DIRECT_BUFFERS = true; // Pooled off heap TCP buffers instead of heap buffers per connection
+	public static final int INBOUND_QUEUE_SIZE = 8192; // Network events buffered between ticks, power of two
+	public static final boolean LAG_COMPENSATION = true; // Check thrown spears against where the thrower saw the other players
+	public static final int LAG_COMPENSATION_TICKS = 16; // Ticks of player positions kept per game, the most a hit is rewound by
+	public static final long PING_INTERVAL = 1000; // Milliseconds between return trip time measurements of players in a game
+	public static final boolean ADAPTIVE_SNAPSHOT_RATE = true; // Send each client snapshots as often as its link keeps up with instead of every tick
+	public static final float MIN_SNAPSHOT_RATE = 10f; // Snapshots per second a client gets however bad its link is
+	public static final float MAX_SNAPSHOT_RATE = TICK_RATE; // Snapshots per second a client gets while its link keeps up, at most the tick rate
+	public static final float SNAPSHOT_RATE_INCREASE = 10f; // Snapshots per second a client's rate grows by every second its link keeps up
+	public static final float SNAPSHOT_BUDGET_DECREASE = 0.5f; // Factor a client's bytes per second are cut by when its link falls behind
+	public static final float SNAPSHOT_LOSS_THRESHOLD = 0.1f; // Share of a client's recent snapshots lost at which its link falls behind
+	public static final int SNAPSHOT_BACKLOG_BYTES = 2048; // Queued TCP bytes at which a client's link falls behind, below TCP_HIGH_WATERMARK
+	public static final long SNAPSHOT_ACK_SLACK = 100; // Milliseconds a sent snapshot may go unacknowledged beyond the return trip time
+	public static final int SNAPSHOT_RETURN_TRIP_SLACK = 100; // Milliseconds the return trip time may grow over the usual one before it counts as queuing
+	public static final int METRICS_PORT = 9464; // Loopback port of the plain text metrics endpoint, 0 or less disables it
+	public static final int METRICS_WINDOW_TICKS = TICK_RATE * 10; // Ticks covered by the tick duration percentiles
 
 }
\ No newline at end of file
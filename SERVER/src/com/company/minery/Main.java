@@ -6,6 +6,8 @@ import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
 public class Main {
 	public static void main(String[] args) {
 		HeadlessApplicationConfiguration cfg = new HeadlessApplicationConfiguration();
+		// Ticking is done by App's own scheduler thread, the headless loop only handles exit() and runnables.
+		cfg.renderInterval = 0.1f;
 		new HeadlessApplication(new App(), cfg);
 	}
 }
@@ -0,0 +1,105 @@
+package com.company.minery.game;
+
+import com.badlogic.gdx.utils.Array;
+import com.company.minery.game.player.Player;
+
+/**
+ * Ring of where a game's players were at the end of each of the last ticks, so spear hits can be checked against where the
+ * thrower saw them. Only what moves is kept, the player's position and head offset, in flat arrays of a fixed number of ticks
+ * per player. Player i of the game owns the block of ticks starting at i times the capacity.
+ */
+public final class BoundsHistory {
+	
+	private final int capacity;
+	
+	private float[] x = new float[0];
+	private float[] y = new float[0];
+	private float[] headX = new float[0];
+	private float[] headY = new float[0];
+	
+	private int newest = -1;
+	private int recorded;
+	
+	/**
+	 * @param capacity Ticks kept, at least 1.
+	 */
+	public BoundsHistory(final int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+		}
+		
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Makes room for the given number of players. Players added after ticks were recorded have no history until they are
+	 * recorded themselves.
+	 */
+	public void ensurePlayers(final int playerCount) {
+		final int length = playerCount * capacity;
+		
+		if(x.length >= length) {
+			return;
+		}
+		
+		x = grow(x, length);
+		y = grow(y, length);
+		headX = grow(headX, length);
+		headY = grow(headY, length);
+	}
+	
+	public void record(final Array<Player> players) {
+		newest = (newest + 1) % capacity;
+		recorded = Math.min(recorded + 1, capacity);
+		
+		for(int i = 0; i < players.size; i += 1) {
+			final Player player = players.get(i);
+			final int index = i * capacity + newest;
+			
+			x[index] = player.x;
+			y[index] = player.y;
+			headX[index] = player.head.offsetX;
+			headY[index] = player.head.offsetY;
+		}
+	}
+	
+	/**
+	 * Returns the index of the record the given number of ticks back, 0 being the last one, for the accessors below. Requests
+	 * reaching further back than what was recorded get the oldest record, -1 is returned if there is none yet.
+	 */
+	public int rewind(final int playerIndex,
+					  final int ticks) {
+		
+		if(recorded == 0) {
+			return -1;
+		}
+		
+		final int back = Math.min(ticks, recorded - 1);
+		return playerIndex * capacity + (newest - back + capacity) % capacity;
+	}
+	
+	public float x(final int index) {
+		return x[index];
+	}
+	
+	public float y(final int index) {
+		return y[index];
+	}
+	
+	public float headX(final int index) {
+		return headX[index];
+	}
+	
+	public float headY(final int index) {
+		return headY[index];
+	}
+	
+	private static float[] grow(final float[] values,
+								final int length) {
+		
+		final float[] grown = new float[length];
+		System.arraycopy(values, 0, grown, 0, values.length);
+		return grown;
+	}
+	
+}
@@ -1,6 +1,7 @@
 package com.company.minery.game;
 
 import com.badlogic.gdx.utils.Array;
+import com.company.minery.Constants;
 import com.company.minery.game.map.Map;
 import com.company.minery.game.player.PhysicalObject;
 import com.company.minery.game.player.Player;
@@ -11,10 +12,16 @@ public final class Game {
 	public final Map map;
 	public final GameAssets assets;
 	
+	// Read only outside of this class, objects know their own index so removal is a constant time swap with the last one.
 	public final Array<Player> players = new Array<Player>();
 	public final Array<Spear> spears = new Array<Spear>();
 	public final Array<PhysicalObject> physicalObjects = new Array<PhysicalObject>();
 	
+	// Recorded at the end of every update, spear hits are checked against it with lag compensation.
+	public final BoundsHistory history = new BoundsHistory(Constants.LAG_COMPENSATION_TICKS);
+	
+	private int netIdCounter;
+	
 	public Game(final Map map,
 				final GameAssets assets) {
 		
@@ -22,4 +29,60 @@ public final class Game {
 		this.assets = assets;
 	}
 	
+	public int nextNetId() {
+		return netIdCounter++;
+	}
+	
+	public void addPlayer(final Player player) {
+		player.playerIndex = players.size;
+		players.add(player);
+		history.ensurePlayers(players.size);
+		addObject(player);
+	}
+	
+	public void addSpear(final Spear spear) {
+		spear.spearIndex = spears.size;
+		spears.add(spear);
+		addObject(spear);
+	}
+	
+	/**
+	 * The last spear and the last object take the removed spear's places, callers iterating over either list have to account
+	 * for that.
+	 */
+	public void removeSpear(final Spear spear) {
+		final Spear lastSpear = spears.pop();
+		
+		if(lastSpear != spear) {
+			spears.set(spear.spearIndex, lastSpear);
+			lastSpear.spearIndex = spear.spearIndex;
+		}
+		spear.spearIndex = -1;
+		
+		final PhysicalObject lastObject = physicalObjects.pop();
+		
+		if(lastObject != spear) {
+			physicalObjects.set(spear.objectIndex, lastObject);
+			lastObject.objectIndex = spear.objectIndex;
+		}
+		spear.objectIndex = -1;
+		
+		if(spear.owner != null && spear.owner.ownSpearNetId == spear.netId) {
+			spear.owner.ownSpearNetId = -1;
+		}
+	}
+	
+	public void swapObjects(final int first,
+							final int second) {
+		
+		physicalObjects.swap(first, second);
+		physicalObjects.get(first).objectIndex = first;
+		physicalObjects.get(second).objectIndex = second;
+	}
+	
+	private void addObject(final PhysicalObject object) {
+		object.objectIndex = physicalObjects.size;
+		physicalObjects.add(object);
+	}
+	
 }
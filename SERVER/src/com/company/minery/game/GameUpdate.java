@@ -1,10 +1,11 @@
 package com.company.minery.game;
 
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
 import com.company.minery.Constants;
 import com.company.minery.game.map.Map;
-import com.company.minery.game.map.Tiles;
+import com.company.minery.game.map.CollisionMask;
 import com.company.minery.game.player.PhysicalObject;
 import com.company.minery.game.player.Player;
 import com.company.minery.game.player.Player.MovementDirection;
@@ -12,8 +13,15 @@ import com.company.minery.game.player.Spear;
 
 public final class GameUpdate {
 
+	// Cells of the spear broad phase, in tiles.
+	private static final int SPEAR_GRID_CELL = 4;
+	
 	private final Vector2 tmpVector = new Vector2();
 	
+	private SpatialGrid<Spear> spearGrid;
+	private Map spearGridMap;
+	private final Array<Spear> nearbySpears = new Array<Spear>();
+	
 	public void update(final float deltaTime,
 					   final Game game,
 					   final Map map) {
@@ -33,6 +41,24 @@ public final class GameUpdate {
 		
 		final float maxSpearVelocity = Constants.JUMP_HEIGHT * 2f * tileHeight;
 		
+		final SpatialGrid<Spear> spearGrid = buildSpearGrid(game, map);
+		final Array<Spear> nearbySpears = this.nearbySpears;
+		
+		// Spears are filed under where they start the tick but move during it, queries are widened by how far they can get.
+		float spearReach = 0f;
+		
+		for(int i = 0; i < game.spears.size; i += 1) {
+			final Spear spear = game.spears.get(i);
+			spearReach = Math.max(spearReach, spearReach(spear, deltaTime, gravity));
+		}
+		
+		// Thrown spears may be checked against players this many ticks back.
+		int maxRewindTicks = 0;
+		
+		for(int i = 0; i < game.players.size; i += 1) {
+			maxRewindTicks = Math.max(maxRewindTicks, game.players.get(i).rewindTicks);
+		}
+		
 		for(int i = 0; i < physicalObjects.size; i += 1) {
 			final PhysicalObject object = physicalObjects.get(i);
 			
@@ -54,31 +80,65 @@ public final class GameUpdate {
 					}
 					
 					if(!player.dead) {
-						// Check if the player can pick up a spear.
-						for(int ii = 0; ii < game.spears.size; ii += 1) {
-							final Spear spear = game.spears.get(ii);
-							
-							if(spear.uid == player.ownSpearUid) {
-								tmpVector.x = (player.x + player.width / 2f) - (spear.x + spear.width / 2f);
-								tmpVector.y = (player.y + player.height / 2f) - (spear.y + spear.height / 2f);
+						// Only the own spear can turn ignoreOwnSpear off, no need to look for it otherwise.
+						if(player.ignoreOwnSpear) {
+							for(int ii = 0; ii < game.spears.size; ii += 1) {
+								final Spear spear = game.spears.get(ii);
 								
-								final float distance = tmpVector.len();
-								if(distance > tileWidth * 2f) {
-									player.ignoreOwnSpear = false;
+								if(spear.uid == player.ownSpearUid) {
+									tmpVector.x = (player.x + player.width / 2f) - (spear.x + spear.width / 2f);
+									tmpVector.y = (player.y + player.height / 2f) - (spear.y + spear.height / 2f);
+									
+									final float distance = tmpVector.len();
+									if(distance > tileWidth * 2f) {
+										player.ignoreOwnSpear = false;
+									}
+									break;
 								}
 							}
+						}
+						
+						// Check if the player can pick up a spear or is hit by one, where it is or was when throwers saw it.
+						final float reach = tileHeight + spearReach;
+						float minX = player.x;
+						float minY = player.y;
+						float maxX = player.x;
+						float maxY = player.y;
+						
+						for(int ii = 1; ii <= maxRewindTicks; ii += 1) {
+							final int index = game.history.rewind(player.playerIndex, ii);
+							
+							if(index != -1) {
+								minX = Math.min(minX, game.history.x(index));
+								minY = Math.min(minY, game.history.y(index));
+								maxX = Math.max(maxX, game.history.x(index));
+								maxY = Math.max(maxY, game.history.y(index));
+							}
+						}
+						
+						nearbySpears.clear();
+						spearGrid.query(minX - reach, minY - reach, maxX + player.width + reach, maxY + player.height + reach, nearbySpears);
+						
+						for(int ii = 0; ii < nearbySpears.size; ii += 1) {
+							final Spear spear = nearbySpears.get(ii);
+							
+							if(spear.spearIndex == -1) {
+								// Picked up earlier this tick.
+								continue;
+							}
 							
 							if(spear.movementDirection == MovementDirection.Idle) {
 								if(!player.hasWeapon && checkPlayerVsSpearCollision(player, spear, tileHeight) != COL_NONE) {
-									game.spears.removeIndex(ii);
+									final int spearIndex = spear.objectIndex;
+									game.removeSpear(spear);
 									
-									final int spearIndex = physicalObjects.indexOf(spear, true);
-									if(spearIndex != -1) {
-										physicalObjects.removeIndex(spearIndex);
-										
-										if(spearIndex < i) {
-											i -= 1;
+									// The last object was swapped into the spear's place. If that is behind this one, put the
+									// current object there instead and process the moved one next.
+									if(spearIndex < i) {
+										if(i < physicalObjects.size) {
+											game.swapObjects(spearIndex, i);
 										}
+										i -= 1;
 									}
 									
 									player.onWeaponTaken();
@@ -86,7 +146,7 @@ public final class GameUpdate {
 								}
 							}
 							else {
-								final int col = checkPlayerVsSpearCollision(player, spear, 0);
+								final int col = checkThrownSpearCollision(game, player, spear);
 								if(col != COL_NONE) {
 									boolean damage = true;
 									
@@ -113,6 +173,7 @@ public final class GameUpdate {
 						
 						if(player.requestsAttack && player.hasWeapon) {
 							final Spear spear = new Spear();
+							spear.netId = game.nextNetId();
 							spear.applyAppearance(game.assets);
 							
 							final float spawnPointX = player.x + player.rightHand.offsetX + player.rightHand.originX;
@@ -130,13 +191,17 @@ public final class GameUpdate {
 							spear.velocityY = tmpVector.y;
 							spear.movementDirection = spear.velocityX < 0 ? MovementDirection.Left : MovementDirection.Right;
 							
-							game.spears.add(spear);
-							physicalObjects.add(spear);
+							spear.owner = player;
+							
+							game.addSpear(spear);
+							spearGrid.insert(spear);
+							spearReach = Math.max(spearReach, spearReach(spear, deltaTime, gravity));
 							
 							object.animationTimer = 0f;
 							
 							player.ignoreOwnSpear = true;
 							player.ownSpearUid = spear.uid;
+							player.ownSpearNetId = spear.netId;
 							
 							player.onWeaponLost();
 						}
@@ -214,68 +279,18 @@ public final class GameUpdate {
 				final float normVelocityX = velocityX * deltaTime;
 				final float normVelocityY = velocityY * deltaTime;
 				
-				final int segmentsX = 8; // TODO: calculate by the movement amount
-				final int segmentsY = 8; // TODO: calculate by the movement amount
-				final int segments = Math.max(segmentsX, segmentsY);
+				final boolean embedded = checkPawnCollision(object, currentX, currentY, currentX + pawnWidth, currentY + pawnHeight, map);
 				
-				float xMod = 1f;
-				float yMod = 1f;
+				// Sweep each axis through the tile grid up to the first solid tile, x first and then y from the new x. Every
+				// tile row or column the leading edge crosses is visited, so fast objects can't skip over thin walls.
+				final float x = embedded ? currentX : sweepX(currentX, currentY, pawnWidth, pawnHeight, normVelocityX, map);
+				final float y = embedded ? currentY : sweepY(x, currentY, pawnWidth, pawnHeight, normVelocityY, map);
 				
-				{
-					final float segmentStep = 1f / segments;
-					for(int ii = segments; ii >= 1; ii -= 1) {
-						final float mod = (segmentStep * ii);
-						xMod = mod;
-						yMod = mod;
-						
-						final float x = currentX + normVelocityX * xMod;
-						final float y = currentY + normVelocityY * yMod;
-						
-						if(!checkPawnCollision(object, x, y, x + pawnWidth, y + pawnHeight, map)) {
-							break;
-						}
-						else {
-							xMod = 0f;
-							yMod = 0f;
-						}
-					}
-				}
-				
-				{
-					final float y = currentY + normVelocityY * yMod;
-					final float segmentStep = 1f / segmentsX;
-					for(int ii = segments; ii >= 1; ii -= 1) {
-						final float mod = (segmentStep * ii);
-						xMod = mod;
-						
-						final float x = currentX + normVelocityX * xMod;
-						
-						if(!checkPawnCollision(object, x, y, x + pawnWidth, y + pawnHeight, map)) {
-							break;
-						}
-						else {
-							xMod = 0f;
-						}
-					}
-				}
+				final boolean blockedX = embedded || x != currentX + normVelocityX;
+				final boolean blockedY = embedded || y != currentY + normVelocityY;
 				
-				{
-					final float x = currentX + normVelocityX * xMod;
-					final float segmentStep = 1f / segmentsY;
-					for(int ii = segments; ii >= 1; ii -= 1) {
-						final float mod = (segmentStep * ii);
-						yMod = mod;
-						
-						final float y = currentY + normVelocityY * yMod;
-						
-						if(!checkPawnCollision(object, x, y, x + pawnWidth, y + pawnHeight, map)) {
-							object.isInAir = true;
-							break;
-						}
-						else {
-							yMod = 0f;
-						}
-					}
+				if(!blockedY) {
+					object.isInAir = true;
 				}
 				
 				if(object instanceof Spear) {
@@ -286,26 +301,26 @@ public final class GameUpdate {
 						((Spear) object).lastRotation = rotation;
 					}
 					
-					if(xMod != 1 || yMod != 1) {
+					if(blockedX || blockedY) {
 						object.velocityX = 0;
 						object.velocityY = 0;
 						object.movementDirection = MovementDirection.Idle;
 					}
 				}
 				
-				pawnX = currentX + normVelocityX * xMod;
-				pawnY = currentY + normVelocityY * yMod;
+				pawnX = x;
+				pawnY = y;
 				
 				object.x = pawnX;
 				object.y = pawnY;
 
 				// If hits sides
-				if(xMod == 0) {
+				if(blockedX) {
 					object.isRunning = false;
 				}
 				
 				// If hits the ground or top.
-				if(yMod == 0f) {
+				if(blockedY) {
 					// If velocity is less than 0 this means that pawn has hit the ground.
 					if(normVelocityY < 0f) {
 						object.isInAir = false;
@@ -324,6 +339,35 @@ public final class GameUpdate {
 		}
 		
 		checkCondition(game);
+		game.history.record(game.players);
+	}
+	
+	private SpatialGrid<Spear> buildSpearGrid(final Game game,
+											  final Map map) {
+		
+		if(spearGridMap != map) {
+			spearGrid = new SpatialGrid<Spear>(map, SPEAR_GRID_CELL);
+			spearGridMap = map;
+		}
+		
+		final SpatialGrid<Spear> spearGrid = this.spearGrid;
+		spearGrid.clear();
+		
+		for(int i = 0; i < game.spears.size; i += 1) {
+			spearGrid.insert(game.spears.get(i));
+		}
+		
+		return spearGrid;
+	}
+	
+	/**
+	 * Upper bound of the distance a spear moves this tick, gravity included.
+	 */
+	private static float spearReach(final Spear spear,
+									final float deltaTime,
+									final float gravity) {
+		
+		return (Math.abs(spear.velocityX) + Math.abs(spear.velocityY) + gravity * deltaTime) * deltaTime;
 	}
 	
 	private void stopPlayers(final Game game) {
@@ -345,21 +389,57 @@ public final class GameUpdate {
 		return false;
 	}
 	
+	// Gap kept in front of tiles hit with the right or top edge, in tiles.
+	private static final float COLLISION_SKIN = 0.001f;
+	
 	private static final int COL_NONE = 0;
 	private static final int COL_BODY = 1;
 	private static final int COL_HEAD = 2;
 	
+	/**
+	 * A spear thrown by another player is checked against where the player was when its thrower saw it, as far back as the
+	 * thrower's return trip time goes. The spear itself is where the server has it, the thrower's throw only reached the
+	 * server that much later.
+	 */
+	private int checkThrownSpearCollision(final Game game,
+										  final Player player,
+										  final Spear spear) {
+		
+		final Player owner = spear.owner;
+		final int rewindTicks = owner != null && owner != player ? owner.rewindTicks : 0;
+		final int index = rewindTicks > 0 ? game.history.rewind(player.playerIndex, rewindTicks) : -1;
+		
+		if(index == -1) {
+			return checkPlayerVsSpearCollision(player, spear, 0);
+		}
+		
+		final BoundsHistory history = game.history;
+		return checkPlayerVsSpearCollision(player, history.x(index), history.y(index), history.headX(index), history.headY(index), spear, 0);
+	}
+	
 	private int checkPlayerVsSpearCollision(final Player player,
 											final Spear spear,
 											final float spearBoundsMod) {
 		
+		return checkPlayerVsSpearCollision(player, player.x, player.y, player.head.offsetX, player.head.offsetY, spear, spearBoundsMod);
+	}
+	
+	/**
+	 * @param playerX The player's box and head are tested at the given position instead of its current one.
+	 */
+	private int checkPlayerVsSpearCollision(final Player player,
+											final float playerX,
+											final float playerY,
+											final float headOffsetX,
+											final float headOffsetY,
+											final Spear spear,
+											final float spearBoundsMod) {
+		
 		final float spearX = spear.x - spearBoundsMod;
 		final float spearY = spear.y - spearBoundsMod;
 		final float spearRight = spearX + spear.width + spearBoundsMod * 2;
 		final float spearTop = spearY + spear.height + spearBoundsMod * 2;
 		
-		final float playerX = player.x;
-		final float playerY = player.y;
 		final float playerRight = playerX + player.width;
 		final float playerTop = playerY + player.height;
 		
@@ -367,45 +447,130 @@ public final class GameUpdate {
 			return COL_NONE;
 		}
 		
-		if(playerX + player.head.offsetX > spearRight || playerX + player.head.offsetX + player.head.texture.getWidth() < spearX ||
-		   playerY + player.head.offsetY > spearTop || playerY + player.head.offsetY + player.head.texture.getHeight() < spearY) {
+		if(playerX + headOffsetX > spearRight || playerX + headOffsetX + player.head.texture.getWidth() < spearX ||
+		   playerY + headOffsetY > spearTop || playerY + headOffsetY + player.head.texture.getHeight() < spearY) {
 			return COL_HEAD;
 		}
 		return COL_BODY;
 	}
 	
-	private boolean checkPawnCollision(final PhysicalObject object, 
-									   final float pawnX, 
-									   final float pawnY, 
-									   final float pawnRight, 
-									   final float pawnTop,
-									   final Map map) {
+	/**
+	 * Moves a box horizontally by distance and returns its new x, stopped in front of the first column of solid tiles its
+	 * leading edge enters. The box is expected to start outside of solid tiles.
+	 */
+	private float sweepX(final float pawnX,
+						 final float pawnY,
+						 final float pawnWidth,
+						 final float pawnHeight,
+						 final float distance,
+						 final Map map) {
+		
+		if(distance == 0f) {
+			return pawnX;
+		}
 		
 		final float tileWidth = map.tileWidth;
 		final float tileHeight = map.tileHeight;
 		
-		final Tiles tiles = map.mainLayer.tiles;
-		final byte[] tileIndexes = tiles.tiles;
-		final int tilesWidth = tiles.width;
+		final int tileBottom = MathUtils.floor(pawnY / tileHeight);
+		final int tileTop = MathUtils.floor((pawnY + pawnHeight) / tileHeight);
 		
-		final int tileLeft = (int)(pawnX / tileWidth);
-		final int tileBottom = (int)(pawnY / tileHeight);
-		final int tileRight = (int)(pawnRight / tileWidth);
-		final int tileTop = (int)(pawnTop / tileHeight);
+		if(distance > 0f) {
+			final float pawnRight = pawnX + pawnWidth;
+			final int tileFrom = MathUtils.floor(pawnRight / tileWidth) + 1;
+			final int tileTo = MathUtils.floor((pawnRight + distance) / tileWidth);
+			
+			if(tileFrom <= tileTo) {
+				final int xi = map.collisionMask.firstSolidColumn(tileFrom, tileTo, tileBottom, tileTop);
+				
+				if(xi != CollisionMask.NONE) {
+					// A right edge exactly on the tile border already overlaps the tile.
+					return Math.max(pawnX, xi * tileWidth - pawnWidth - COLLISION_SKIN * tileWidth);
+				}
+			}
+		}
+		else {
+			final int tileFrom = MathUtils.floor(pawnX / tileWidth) - 1;
+			final int tileTo = MathUtils.floor((pawnX + distance) / tileWidth);
+			
+			if(tileFrom >= tileTo) {
+				final int xi = map.collisionMask.firstSolidColumn(tileFrom, tileTo, tileBottom, tileTop);
+				
+				if(xi != CollisionMask.NONE) {
+					return (xi + 1) * tileWidth;
+				}
+			}
+		}
 		
-		for(int yi = tileBottom; yi <= tileTop; yi += 1) {
-			for(int xi = tileLeft; xi <= tileRight; xi += 1) {
-				final byte tileIndex = tileIndexes[yi * tilesWidth + xi];
+		return pawnX + distance;
+	}
+	
+	/**
+	 * Vertical counterpart of {@link #sweepX}.
+	 */
+	private float sweepY(final float pawnX,
+						 final float pawnY,
+						 final float pawnWidth,
+						 final float pawnHeight,
+						 final float distance,
+						 final Map map) {
+		
+		if(distance == 0f) {
+			return pawnY;
+		}
+		
+		final float tileWidth = map.tileWidth;
+		final float tileHeight = map.tileHeight;
+		
+		final int tileLeft = MathUtils.floor(pawnX / tileWidth);
+		final int tileRight = MathUtils.floor((pawnX + pawnWidth) / tileWidth);
+		
+		if(distance > 0f) {
+			final float pawnTop = pawnY + pawnHeight;
+			final int tileFrom = MathUtils.floor(pawnTop / tileHeight) + 1;
+			final int tileTo = MathUtils.floor((pawnTop + distance) / tileHeight);
+			
+			if(tileFrom <= tileTo) {
+				final int yi = map.collisionMask.firstSolidRow(tileFrom, tileTo, tileLeft, tileRight);
 				
-				if(tileIndex == -128) {
-					continue;
+				if(yi != CollisionMask.NONE) {
+					// A top edge exactly on the tile border already overlaps the tile.
+					return Math.max(pawnY, yi * tileHeight - pawnHeight - COLLISION_SKIN * tileHeight);
 				}
+			}
+		}
+		else {
+			final int tileFrom = MathUtils.floor(pawnY / tileHeight) - 1;
+			final int tileTo = MathUtils.floor((pawnY + distance) / tileHeight);
+			
+			if(tileFrom >= tileTo) {
+				final int yi = map.collisionMask.firstSolidRow(tileFrom, tileTo, tileLeft, tileRight);
 				
-				return true;
+				if(yi != CollisionMask.NONE) {
+					return (yi + 1) * tileHeight;
+				}
 			}
 		}
 		
-		return false;
+		return pawnY + distance;
+	}
+	
+	private boolean checkPawnCollision(final PhysicalObject object, 
+									   final float pawnX, 
+									   final float pawnY, 
+									   final float pawnRight, 
+									   final float pawnTop,
+									   final Map map) {
+		
+		final float tileWidth = map.tileWidth;
+		final float tileHeight = map.tileHeight;
+		
+		final int tileLeft = MathUtils.floor(pawnX / tileWidth);
+		final int tileBottom = MathUtils.floor(pawnY / tileHeight);
+		final int tileRight = MathUtils.floor(pawnRight / tileWidth);
+		final int tileTop = MathUtils.floor(pawnTop / tileHeight);
+		
+		return map.collisionMask.isSolid(tileLeft, tileBottom, tileRight, tileTop);
 	}
 	
 }
@@ -0,0 +1,121 @@
+package com.company.minery.game;
+
+import com.badlogic.gdx.utils.Array;
+import com.company.minery.game.map.Map;
+import com.company.minery.game.player.PhysicalObject;
+
+/**
+ * Uniform grid broad phase over the map. Objects are filed under the cell of their bottom left corner, queries widen their box
+ * by the largest object inserted so objects reaching into the box from neighbouring cells are found as well. Queries return
+ * candidates only, their bounds still have to be tested. There is no removal, the grid is rebuilt and callers skip objects
+ * that are gone.
+ */
+public final class SpatialGrid<T extends PhysicalObject> {
+	
+	private static final int NO_ENTRY = -1;
+	
+	private final float cellWidth;
+	private final float cellHeight;
+	private final int columns;
+	private final int rows;
+	
+	// Singly linked entry lists per cell.
+	private final int[] cellHeads;
+	private Object[] entryObjects = new Object[16];
+	private int[] entryNext = new int[16];
+	private int entryCount;
+	
+	private float maxWidth;
+	private float maxHeight;
+	
+	public SpatialGrid(final Map map,
+					   final int cellTiles) {
+		
+		cellWidth = map.tileWidth * cellTiles;
+		cellHeight = map.tileHeight * cellTiles;
+		columns = (map.mainLayer.tiles.width + cellTiles - 1) / cellTiles;
+		rows = (map.mainLayer.tiles.height + cellTiles - 1) / cellTiles;
+		
+		cellHeads = new int[columns * rows];
+		clear();
+	}
+	
+	public void clear() {
+		for(int i = 0; i < cellHeads.length; i += 1) {
+			cellHeads[i] = NO_ENTRY;
+		}
+		for(int i = 0; i < entryCount; i += 1) {
+			entryObjects[i] = null;
+		}
+		
+		entryCount = 0;
+		maxWidth = 0f;
+		maxHeight = 0f;
+	}
+	
+	public void insert(final T object) {
+		if(entryCount == entryObjects.length) {
+			final Object[] objects = new Object[entryCount * 2];
+			final int[] next = new int[entryCount * 2];
+			System.arraycopy(entryObjects, 0, objects, 0, entryCount);
+			System.arraycopy(entryNext, 0, next, 0, entryCount);
+			entryObjects = objects;
+			entryNext = next;
+		}
+		
+		final int cell = cellIndex(column(object.x), row(object.y));
+		
+		entryObjects[entryCount] = object;
+		entryNext[entryCount] = cellHeads[cell];
+		cellHeads[cell] = entryCount;
+		entryCount += 1;
+		
+		maxWidth = Math.max(maxWidth, object.width);
+		maxHeight = Math.max(maxHeight, object.height);
+	}
+	
+	/**
+	 * Adds every object that may overlap the given box to the output, in no particular order.
+	 */
+	@SuppressWarnings("unchecked")
+	public void query(final float left,
+					  final float bottom,
+					  final float right,
+					  final float top,
+					  final Array<T> out) {
+		
+		final int columnFrom = column(left - maxWidth);
+		final int columnTo = column(right);
+		final int rowFrom = row(bottom - maxHeight);
+		final int rowTo = row(top);
+		
+		for(int row = rowFrom; row <= rowTo; row += 1) {
+			for(int column = columnFrom; column <= columnTo; column += 1) {
+				for(int entry = cellHeads[cellIndex(column, row)]; entry != NO_ENTRY; entry = entryNext[entry]) {
+					if(entryObjects[entry] != null) {
+						out.add((T) entryObjects[entry]);
+					}
+				}
+			}
+		}
+	}
+	
+	// Positions outside of the map are clamped into the border cells.
+	
+	private int column(final float x) {
+		final int column = (int) Math.floor(x / cellWidth);
+		return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+	}
+	
+	private int row(final float y) {
+		final int row = (int) Math.floor(y / cellHeight);
+		return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+	}
+	
+	private int cellIndex(final int column,
+						  final int row) {
+		
+		return row * columns + column;
+	}
+	
+}
@@ -0,0 +1,38 @@
+package com.company.minery.game.multiplayer;
+
+import com.company.minery.Constants;
+import com.company.minery.game.Game;
+import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+
+public final class GameConnection {
+	
+	public final Game game;
+	public final GameServerConnection player1;
+	public final GameServerConnection player2;
+	public long lastImpulseTime;
+	
+	// Worker shard that simulates this game for as long as it runs and its slot in that shard's list, see GameWorkerPool.
+	public int shard = -1;
+	public int shardIndex = -1;
+	
+	// Full state of the last tick, built by whichever worker simulated this game.
+	public WorldStateMessage worldState;
+	public int snapshotSequence;
+	
+	// Full states recently sent to both players, refilled in place as baselines for deltas.
+	public final SnapshotHistory snapshots = new SnapshotHistory(Constants.SNAPSHOT_HISTORY_SIZE);
+	
+	// Reused for the delta both players are sent, against a snapshot both of them acknowledged.
+	public final WorldStateMessage delta = new WorldStateMessage();
+	
+	public GameConnection(final Game game,
+						  final GameServerConnection player1,
+						  final GameServerConnection player2) {
+		
+		this.game = game;
+		this.player1 = player1;
+		this.player2 = player2;
+		this.lastImpulseTime = System.currentTimeMillis();
+	}
+	
+}
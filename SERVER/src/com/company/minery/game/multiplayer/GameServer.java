@@ -1,6 +1,5 @@
 package com.company.minery.game.multiplayer;
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.Array;
 import com.company.minery.Constants;
@@ -16,65 +15,57 @@ import com.company.minery.game.multiplayer.messages.ObjectMessage;
 import com.company.minery.game.multiplayer.messages.PlayerMessage;
 import com.company.minery.game.multiplayer.messages.SpearMessage;
 import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+import com.company.minery.game.multiplayer.messages.WorldStateQuantizer;
 import com.company.minery.game.player.PhysicalObject;
 import com.company.minery.game.player.Player;
 import com.company.minery.game.player.Spear;
 import com.company.minery.utils.kryonet.Connection;
+import com.company.minery.utils.kryonet.FrameworkMessage;
 import com.company.minery.utils.kryonet.Listener;
 import com.company.minery.utils.kryonet.Server;
 
 public final class GameServer {
 
-	private static final class GameConnection {
-		
-		public final Game game;
-		public final GameServerConnection player1;
-		public final GameServerConnection player2;
-		public long lastImpulseTime;
-		
-		public GameConnection(final Game game,
-							  final GameServerConnection player1,
-							  final GameServerConnection player2) {
-			
-			this.game = game;
-			this.player1 = player1;
-			this.player2 = player2;
-			this.lastImpulseTime = System.currentTimeMillis();
-		}
-		
-	}
-	
-	private static final class Message {
-		
-		public final GameServerConnection connection;
-		public final Object object;
-		
-		public Message(final GameServerConnection connection,
-					   final Object object) {
-			
-			this.connection = connection;
-			this.object = object;
-		}
-		
-	}
-	
 	private final GameAssets assets;
 	private final Map map;
+	private final WorldStateQuantizer quantizer = new WorldStateQuantizer();
 	
-	private final GameUpdate worldUpdate = new GameUpdate();
+	private final GameWorkerPool gameWorkers;
 	private final Server server;
+	private final MeteredSerialization serialization = new MeteredSerialization();
+	private final ServerMetrics metrics = new ServerMetrics(serialization, Constants.METRICS_WINDOW_TICKS);
+	private MetricsEndpoint metricsEndpoint;
 	
-	private final Array<Message> pendingMessages = new Array<Message>();
+	private final InboundQueue inbound = new InboundQueue(Constants.INBOUND_QUEUE_SIZE);
+	private final InboundQueue.Handler inboundHandler;
 	private final Array<GameServerConnection> pendingConnections = new Array<GameServerConnection>();
 	private final Array<GameServerConnection> pendingDisconnections = new Array<GameServerConnection>();
 	
 	private final Array<GameConnection> gameConnections = new Array<GameConnection>();
+	private final int[] recipients = new int[2];
+	private final int[] recipientLengths = new int[2];
+	
+	private float tickDeltaTime;
+	private long tickTime;
 	
 	public GameServer() {
 		this.assets = new GameAssets();
 		this.map = Generator.generateTestMap(assets);
 		
-		server = new Server() {
+		quantizer.setMap(map);
+		
+		gameWorkers = new GameWorkerPool(Constants.SIMULATION_THREADS, new GameWorkerPool.Task() {
+			
+			@Override
+			public void process(final GameConnection gameConnection,
+								final GameUpdate worldUpdate) {
+				
+				simulateGame(gameConnection, worldUpdate);
+			}
+			
+		});
+		
+		server = new Server(Constants.TCP_WRITE_QUEUE_SIZE, 2048, serialization, Constants.NETWORK_THREADS) {
 			
 			@Override
 			protected Connection newConnection() {
@@ -88,55 +79,68 @@ public final class GameServer {
 			@Override
 			public void connected(final Connection connection) {
 				System.out.println("Client connected");
-
-				Gdx.app.postRunnable(new Runnable() {
-					
-					@Override
-					public final void run() {
-						pendingConnections.add((GameServerConnection) connection);
-					}
-					
-				});
+				connection.setTcpWatermarks(Constants.TCP_LOW_WATERMARK, Constants.TCP_HIGH_WATERMARK);
+				inbound.put(InboundQueue.EVENT_CONNECTED, connection, null);
 			}
 			
 			@Override
 			public void disconnected(final Connection connection) {
 				System.out.println("Client disconnected");
-				
-				Gdx.app.postRunnable(new Runnable() {
-					
-					@Override
-					public final void run() {
-						pendingDisconnections.add((GameServerConnection) connection);
-					}
-					
-				});
+				inbound.put(InboundQueue.EVENT_DISCONNECTED, connection, null);
 			}
 			
 			@Override
 			public void received(final Connection connection, 
 								 final Object object) {
-
-				Gdx.app.postRunnable(new Runnable() {
-					
-					@Override
-					public final void run() {
-						pendingMessages.add(new Message((GameServerConnection) connection, object));
-					}
-					
-				});
+				
+				// Keep alives and pings are handled by kryonet itself.
+				if(!(object instanceof FrameworkMessage)) {
+					inbound.offer(InboundQueue.EVENT_RECEIVED, connection, object);
+				}
 			}
 			
 			@Override
 			public void idle(final Connection connection) {}
 			
+			@Override
+			public void congested(final Connection connection) {
+				// Runs with the connection's write lock held, processGames checks isCongested before each snapshot.
+				metrics.recordCongestion();
+			}
+			
+			@Override
+			public void drained(final Connection connection) {}
+			
 		});
 		
-		Multiplayer.register(server);
+		inboundHandler = new InboundQueue.Handler() {
+			
+			@Override
+			public void handle(final int event,
+							   final Connection connection,
+							   final Object object) {
+				
+				if(event == InboundQueue.EVENT_RECEIVED) {
+					processMessage((GameServerConnection) connection, object);
+				}
+				else if(event == InboundQueue.EVENT_CONNECTED) {
+					pendingConnections.add((GameServerConnection) connection);
+				}
+				else if(event == InboundQueue.EVENT_DISCONNECTED) {
+					pendingDisconnections.add((GameServerConnection) connection);
+				}
+			}
+			
+		};
+		
+		server.setUdpConnectionIDPrefix(Constants.UDP_CONNECTION_ID_PREFIX);
+		server.setUdpBatching(Constants.UDP_BATCH_SIZE);
+		server.setDirectBuffers(Constants.DIRECT_BUFFERS);
+		Multiplayer.register(server, quantizer);
 	}
 	
-	public void begin(final int tcpPort, 
-					  final int udpPort) {
+	public boolean begin(final int tcpPort, 
+						 final int udpPort) {
 		
 		server.start();
 		
@@ -145,66 +149,99 @@ public final class GameServer {
 		}
 		catch(final Exception ex) {
 			ex.printStackTrace();
-			Gdx.app.exit();
+			return false;
 		}
+		
+		// Metrics are optional, the server runs without them.
+		try {
+			metrics.register();
+		}
+		catch(final Exception ex) {
+			ex.printStackTrace();
+		}
+		
+		if(Constants.METRICS_PORT > 0) {
+			try {
+				metricsEndpoint = new MetricsEndpoint(metrics, Constants.METRICS_PORT);
+				metricsEndpoint.start();
+			}
+			catch(final Exception ex) {
+				ex.printStackTrace();
+				metricsEndpoint = null;
+			}
+		}
+		
+		return true;
 	}
 	
 	public void end() {
 		server.stop();
 		
-		pendingMessages.clear();
+		if(metricsEndpoint != null) {
+			metricsEndpoint.stop();
+			metricsEndpoint = null;
+		}
+		
+		try {
+			metrics.unregister();
+		}
+		catch(final Exception ex) {
+			ex.printStackTrace();
+		}
+		
+		gameWorkers.dispose();
+		
+		// Flush whatever the network thread queued before it stopped.
+		inbound.drain(inboundHandler);
 		pendingConnections.clear();
 		pendingDisconnections.clear();
 		gameConnections.clear();
 	}
 	
 	private void processImpulses() {
-		final Array<Message> pendingMessages = this.pendingMessages;
+		inbound.drain(inboundHandler);
+	}
+	
+	private void processMessage(final GameServerConnection connection,
+								final Object object) {
+		
 		final Array<GameConnection> gameConnections = this.gameConnections;
 		
-		for(int i = 0; i < pendingMessages.size; i += 1) {
-			final Message message = pendingMessages.get(i);
-			final GameServerConnection connection = message.connection;
-			final Object object = message.object;
+		if(object instanceof ImpulseMessage) {
+			final ImpulseMessage impulse = (ImpulseMessage) object;
 			
-			if(object instanceof ImpulseMessage) {
-				final ImpulseMessage impulse = (ImpulseMessage) object;
-				final long time = impulse.messageTime;
+			connection.acknowledgeSnapshot(impulse.acknowledgedSnapshot, impulse.receivedMask);
+			
+			// Impulses travel over UDP, one that arrives after a newer one is stale.
+			if(connection.applyImpulse(impulse.sequence)) {
+				final byte flag = impulse.movementFlag;
+				if(flag == ImpulseMessage.FLAG_MOVE_IDLE) {
+					connection.player.onIdle();
+				}
+				else if(flag == ImpulseMessage.FLAG_MOVE_LEFT) {
+					connection.player.onLeftPressed();
+				}
+				else if(flag == ImpulseMessage.FLAG_MOVE_RIGHT) {
+					connection.player.onRightPressed();
+				}
 				
-				if(connection.impulseTimeThreshold() <= time) {
-					connection.setImpulseTimeThreshold(time);
+				if(impulse.jumpFlag) {
+					connection.player.onJumpPressed();
+				}
+				if(impulse.attackFlag) {
+					final float scale = 1f / impulse.scale;
+					connection.player.onAttackPressed(impulse.attackX * scale, impulse.attackY * scale);
+				}
 				
-					final byte flag = impulse.movementFlag;
-					if(flag == ImpulseMessage.FLAG_MOVE_IDLE) {
-						connection.player.onIdle();
-					}
-					else if(flag == ImpulseMessage.FLAG_MOVE_LEFT) {
-						connection.player.onLeftPressed();
-					}
-					else if(flag == ImpulseMessage.FLAG_MOVE_RIGHT) {
-						connection.player.onRightPressed();
-					}
-					
-					if(impulse.jumpFlag) {
-						connection.player.onJumpPressed();
-					}
-					if(impulse.attackFlag) {
-						final float scale = 1f / impulse.scale;
-						connection.player.onAttackPressed(impulse.attackX * scale, impulse.attackY * scale);
-					}
-					
-					for(int ii = 0; ii < gameConnections.size; ii += 1) {
-						final GameConnection gameConnection = gameConnections.get(ii);
-						if(connection.player.game == gameConnection.game) {
-							gameConnection.lastImpulseTime = System.currentTimeMillis();
-							break;
-						}
+				for(int ii = 0; ii < gameConnections.size; ii += 1) {
+					final GameConnection gameConnection = gameConnections.get(ii);
+					if(connection.player.game == gameConnection.game) {
+						gameConnection.lastImpulseTime = System.currentTimeMillis();
+						break;
 					}
 				}
 			}
 		}
-
-		pendingMessages.clear();
 	}
 	
 	private final void processDisconnections() {
@@ -250,6 +287,7 @@ public final class GameServer {
 				}
 				
 				gameConnections.removeIndex(i);
+				gameWorkers.remove(gameConnection);
 				i -= 1;
 				
 				System.out.println("Game count after dead game removal: " + gameConnections.size);
@@ -262,10 +300,10 @@ public final class GameServer {
 								   final MapLocation startLocation) {
 		
 		player.game = game;
+		player.netId = game.nextNetId();
 		player.applyAppearance(assets);
 		
-		game.players.add(player);
-		game.physicalObjects.add(player);
+		game.addPlayer(player);
 		
 		player.x = startLocation.x + startLocation.width / 2f;
 		player.y = startLocation.y + 2f;
@@ -301,6 +339,7 @@ public final class GameServer {
 			
 			final GameConnection gameConnection = new GameConnection(game, player1, player2);
 			gameConnections.add(gameConnection);
+			gameWorkers.add(gameConnection);
 			
 			System.out.println("New game connection added!");
 			System.out.println("Game count after new game: " + gameConnections.size);
@@ -328,64 +367,230 @@ public final class GameServer {
 		}
 	}
 	
+	/**
+	 * Keeps the player's return trip time measured for its snapshot rate and, with lag compensation, turns it into how many
+	 * ticks its throws are checked back in time.
+	 */
+	private final void updateReturnTripTime(final GameServerConnection connection) {
+		if(connection == null || !connection.isConnected()) {
+			return;
+		}
+		
+		if(tickTime - connection.lastPingTime >= Constants.PING_INTERVAL) {
+			connection.lastPingTime = tickTime;
+			connection.updateReturnTripTime();
+		}
+		
+		if(!Constants.LAG_COMPENSATION) {
+			return;
+		}
+		
+		final int returnTripTime = connection.getReturnTripTime();
+		connection.player.rewindTicks = returnTripTime <= 0 ? 0 : Math.min(Math.round(returnTripTime * Constants.TICK_RATE / 1000f), 
+																		   Constants.LAG_COMPENSATION_TICKS - 1);
+	}
+	
 	private final void processGames(final float deltaTime) {
-		final Map map = this.map;
-		final long currentTime = System.currentTimeMillis();
 		final Array<GameConnection> gameConnections = this.gameConnections;
 		
+		tickDeltaTime = deltaTime;
+		tickTime = System.currentTimeMillis();
+		
 		for(int i = 0; i < gameConnections.size; i += 1) {
 			final GameConnection gameConnection = gameConnections.get(i);
+			updateReturnTripTime(gameConnection.player1);
+			updateReturnTripTime(gameConnection.player2);
+		}
+		
+		gameWorkers.process();
+		
+		// Every game of this tick is simulated, only now send out the snapshots.
+		for(int i = 0; i < gameConnections.size; i += 1) {
+			final GameConnection gameConnection = gameConnections.get(i);
+			final GameServerConnection player1 = gameConnection.player1;
+			final GameServerConnection player2 = gameConnection.player2;
 			
-			worldUpdate.update(deltaTime, gameConnection.game, map);
-			
-			final WorldStateMessage worldState = new WorldStateMessage();
-			worldState.messageTime = currentTime;
-			worldState.players = new PlayerMessage[gameConnection.player2 == null || gameConnection.player1 == null ? 1 : 2];
-			
-			int idx = 0;
+			final int sequence = gameConnection.worldState.sequence;
+			final boolean sendPlayer1 = snapshotDue(player1);
+			final boolean sendPlayer2 = snapshotDue(player2);
 			
-			if(gameConnection.player1 != null) {
-				worldState.players[idx++] = fillPlayerMessage(new PlayerMessage(), gameConnection.player1.player);
+			// Both players get the same delta, serialize it once for both unless they were skipped on different ticks.
+			if(sendPlayer1 && sendPlayer2 && player1.skippedMask(sequence) == player2.skippedMask(sequence)) {
+				player1.pendingWorldState.skippedMask = player1.skippedMask(sequence);
+				recipients[0] = player1.getID();
+				recipients[1] = player2.getID();
+				server.sendToUDP(recipients, 2, player1.pendingWorldState, recipientLengths);
+				player1.snapshotRate.sent(sequence, tickTime, recipientLengths[0]);
+				player2.snapshotRate.sent(sequence, tickTime, recipientLengths[1]);
+				player1.snapshotSent(sequence);
+				player2.snapshotSent(sequence);
+				continue;
 			}
-			if(gameConnection.player2 != null) {
-				worldState.players[idx++] = fillPlayerMessage(new PlayerMessage(), gameConnection.player2.player);
-			}
-			
-			final Array<Spear> spears = gameConnection.game.spears;
-			worldState.spears = new SpearMessage[spears.size];
 			
-			for(int ii = 0; ii < spears.size; ii += 1) {
-				worldState.spears[ii] = fillSpearMessage(new SpearMessage(), spears.get(ii));
+			if(sendPlayer1) {
+				sendSnapshot(player1, sequence);
 			}
-			
-			if(gameConnection.player1 != null && gameConnection.player1.isConnected()) {
-				server.sendToUDP(gameConnection.player1.getID(), worldState);
+			if(sendPlayer2) {
+				sendSnapshot(player2, sequence);
 			}
-			if(gameConnection.player2 != null && gameConnection.player2.isConnected()) {
-				server.sendToUDP(gameConnection.player2.getID(), worldState);
+		}
+	}
+	
+	private void sendSnapshot(final GameServerConnection connection,
+							  final int sequence) {
+		
+		// The delta is shared by the game's players, it is serialized right away so the mask can be set per send.
+		connection.pendingWorldState.skippedMask = connection.skippedMask(sequence);
+		connection.snapshotRate.sent(sequence, tickTime, server.sendToUDP(connection.getID(), connection.pendingWorldState));
+		connection.snapshotSent(sequence);
+	}
+	
+	/**
+	 * Whether the client is sent this tick's snapshot, skipped ones are covered by the next delta since it is against what the
+	 * client acknowledged.
+	 */
+	private final boolean snapshotDue(final GameServerConnection connection) {
+		if(connection == null || !connection.isConnected()) {
+			return false;
+		}
+		
+		// Runs every tick so the rate keeps following the link while the client is congested.
+		final boolean due = !Constants.ADAPTIVE_SNAPSHOT_RATE || connection.snapshotRate.update(tickTime, tickDeltaTime, connection);
+		
+		// A client that doesn't keep up with its TCP queue won't keep up with snapshots either. Its snapshots are dropped
+		// until the queue drained.
+		return due && !connection.isCongested();
+	}
+	
+	/**
+	 * Runs on a game worker, must only touch state owned by the given game.
+	 */
+	private void simulateGame(final GameConnection gameConnection,
+							  final GameUpdate worldUpdate) {
+		
+		worldUpdate.update(tickDeltaTime, gameConnection.game, map);
+		
+		final Array<Spear> spears = gameConnection.game.spears;
+		final int sequence = gameConnection.snapshotSequence++;
+		
+		WorldStateMessage worldState = gameConnection.snapshots.recycle(sequence);
+		if(worldState == null) {
+			worldState = new WorldStateMessage();
+		}
+		
+		worldState.messageTime = tickTime;
+		worldState.sequence = sequence;
+		worldState.setCounts(gameConnection.player2 == null || gameConnection.player1 == null ? 1 : 2, spears.size, 0);
+		
+		int idx = 0;
+		
+		if(gameConnection.player1 != null) {
+			fillPlayerMessage(worldState.players[idx++], gameConnection.player1);
+		}
+		if(gameConnection.player2 != null) {
+			fillPlayerMessage(worldState.players[idx++], gameConnection.player2);
+		}
+		
+		for(int ii = 0; ii < spears.size; ii += 1) {
+			fillSpearMessage(worldState.spears[ii], spears.get(ii));
+		}
+		
+		// Removed spears are swapped out of the game's list, deltas are matched in uid order.
+		SnapshotDelta.sort(worldState);
+		
+		gameConnection.snapshots.put(worldState);
+		gameConnection.worldState = worldState;
+		
+		final WorldStateMessage baseline = gameConnection.snapshots.get(sharedBaseline(gameConnection));
+		final WorldStateMessage pendingWorldState = SnapshotDelta.encode(worldState, baseline, gameConnection.delta);
+		
+		if(gameConnection.player1 != null) {
+			gameConnection.player1.pendingWorldState = pendingWorldState;
+		}
+		if(gameConnection.player2 != null) {
+			gameConnection.player2.pendingWorldState = pendingWorldState;
+		}
+	}
+	
+	/**
+	 * Newest snapshot every connected player of the game acknowledged, so one delta against it can be decoded by all of them.
+	 * Deltas against an older baseline than a player's latest are a bit larger, but are only encoded and serialized once.
+	 */
+	private static int sharedBaseline(final GameConnection gameConnection) {
+		final GameServerConnection player1 = gameConnection.player1 != null && gameConnection.player1.isConnected() ? 
+											 gameConnection.player1 : 
+											 null;
+		final GameServerConnection player2 = gameConnection.player2 != null && gameConnection.player2.isConnected() ? 
+											 gameConnection.player2 : 
+											 null;
+		
+		if(player1 == null || player2 == null) {
+			final GameServerConnection player = player1 != null ? player1 : player2;
+			return player != null ? player.acknowledgedSnapshot() : WorldStateMessage.NO_BASELINE;
+		}
+		
+		final int newest = Math.min(player1.acknowledgedSnapshot(), player2.acknowledgedSnapshot());
+		
+		for(int sequence = newest; sequence > newest - Constants.SNAPSHOT_HISTORY_SIZE && sequence >= 0; sequence -= 1) {
+			if(player1.hasAcknowledged(sequence) && player2.hasAcknowledged(sequence)) {
+				return sequence;
 			}
 		}
+		
+		return WorldStateMessage.NO_BASELINE;
 	}
 	
 	public void update(final float deltaTime) {
+		final long startTime = System.nanoTime();
+		
 		processImpulses();
 		processDisconnections();
+		
+		final long impulsesTime = System.nanoTime();
+		
 		processDeadGames();
+		
+		final long deadGamesTime = System.nanoTime();
+		
 		processNewGames();
+		
+		final long newGamesTime = System.nanoTime();
+		
 		processGames(deltaTime);
+		
+		// Everything this tick sent over UDP goes out now, one datagram per client.
+		server.flushUDP();
+		
+		final long endTime = System.nanoTime();
+		
+		metrics.recordTick(impulsesTime - startTime, 
+						   deadGamesTime - impulsesTime, 
+						   newGamesTime - deadGamesTime, 
+						   endTime - newGamesTime, 
+						   gameConnections.size, 
+						   pendingConnections.size, 
+						   server.getUdpDatagramsSent());
+	}
+	
+	public ServerMetrics metrics() {
+		return metrics;
 	}
 	
 	private PlayerMessage fillPlayerMessage(final PlayerMessage message,
-								   			final Player player) {
+								   			final GameServerConnection connection) {
+		
+		final Player player = connection.player;
 		
 		fillObjectMessage(message, player);
+		message.changedFields = PlayerMessage.ALL_FIELDS;
 		message.flip = player.flip;
 		message.requestsAttack = player.requestsAttack;
-		message.attackX = player.attackX;
-		message.attackY = player.attackY;
+		message.attackX = quantizer.roundX(player.attackX);
+		message.attackY = quantizer.roundY(player.attackY);
 		message.hasWeapon = player.hasWeapon;
-		message.ownSpearUid = player.ownSpearUid;
+		message.ownSpearUid = player.ownSpearNetId;
 		message.ignoreOwnSpear = player.ignoreOwnSpear;
+		message.lastImpulse = connection.lastImpulse();
 		
 		return message;
 	}
@@ -394,7 +599,8 @@ public final class GameServer {
 								  		  final Spear spear) {
 		
 		fillObjectMessage(message, spear);
-		message.lastRotation = spear.lastRotation;
+		message.changedFields = SpearMessage.ALL_FIELDS;
+		message.lastRotation = quantizer.roundRotation(spear.lastRotation);
 		return message;
 	}
 	
@@ -403,18 +609,18 @@ public final class GameServer {
 		
 		message.isJumping = object.isInAir;
 		message.movementDirection = (byte) object.movementDirection.id;
-		message.uid = object.uid;
+		message.uid = object.netId;
 		message.requestsJump = object.requestsJump;
-		message.velocityX = object.velocityX;
-		message.velocityY = object.velocityY;
-		message.x = object.x;
-		message.y = object.y;
+		message.velocityX = quantizer.roundVelocityX(object.velocityX);
+		message.velocityY = quantizer.roundVelocityY(object.velocityY);
+		message.x = quantizer.roundX(object.x);
+		message.y = quantizer.roundY(object.y);
 	}
 
 	private ClientAssignmentMessage fillClientAssignmentMessage(final ClientAssignmentMessage message,
 																final Player player) {
 
-		message.playerUid = player.uid;
+		message.playerUid = player.netId;
 		message.x = player.x;
 		message.y = player.y;
 		
@@ -1,5 +1,7 @@
 package com.company.minery.game.multiplayer;
 
+import com.company.minery.Constants;
+import com.company.minery.game.multiplayer.messages.WorldStateMessage;
 import com.company.minery.game.player.Player;
 import com.company.minery.utils.kryonet.Connection;
 
@@ -7,14 +9,96 @@ public final class GameServerConnection extends Connection {
 
 	public final Player player;
 	
+	// Delta or full state built by the game worker, sent once the tick's simulation is done.
+	public WorldStateMessage pendingWorldState;
+	
+	// Bit i is set when acknowledgedSnapshot - i was acknowledged, any of those can serve as a baseline for this client.
+	private long acknowledgedMask;
+	
+	// Last snapshot sent to this client, bit i of skippedMask is set when lastSentSnapshot - 1 - i was not sent.
+	private int lastSentSnapshot = WorldStateMessage.NO_BASELINE;
+	private int skippedMask;
+	
+	// When the return trip time was last requested.
+	public long lastPingTime;
+	
+	public final SnapshotRate snapshotRate = new SnapshotRate(Constants.MIN_SNAPSHOT_RATE, Constants.MAX_SNAPSHOT_RATE);
+	
 	public GameServerConnection(final Player player) {
 		this.player = player;
 	}
 	
-	private long impulseTimeThreshold; /**/ public long impulseTimeThreshold() { return impulseTimeThreshold; }
+	private int lastImpulse; /**/ public int lastImpulse() { return lastImpulse; }
+	private int acknowledgedSnapshot = WorldStateMessage.NO_BASELINE; /**/ public int acknowledgedSnapshot() { return acknowledgedSnapshot; }
 
-	public void setImpulseTimeThreshold(final long impulseTimeThreshold) {
-		this.impulseTimeThreshold = impulseTimeThreshold;
+	/**
+	 * Records the impulse as applied, returns false if it is not newer than the last one and has to be ignored.
+	 */
+	public boolean applyImpulse(final int sequence) {
+		if(sequence <= lastImpulse) {
+			return false;
+		}
+		
+		lastImpulse = sequence;
+		return true;
+	}
+	
+	/**
+	 * @param receivedMask Bit i is set when the client also decoded sequence - 1 - i.
+	 */
+	public void acknowledgeSnapshot(final int sequence,
+									final int receivedMask) {
+		
+		if(sequence == WorldStateMessage.NO_BASELINE) {
+			return;
+		}
+		
+		if(sequence > acknowledgedSnapshot) {
+			final int shift = acknowledgedSnapshot == WorldStateMessage.NO_BASELINE ? Long.SIZE : sequence - acknowledgedSnapshot;
+			
+			acknowledgedMask = shift >= Long.SIZE ? 1L : (acknowledgedMask << shift) | 1L;
+			acknowledgedSnapshot = sequence;
+		}
+		else if(acknowledgedSnapshot - sequence < Long.SIZE) {
+			acknowledgedMask |= 1L << (acknowledgedSnapshot - sequence);
+		}
+		
+		final int maskShift = acknowledgedSnapshot - sequence + 1;
+		
+		if(maskShift < Long.SIZE) {
+			acknowledgedMask |= (receivedMask & 0xffffffffL) << maskShift;
+		}
+	}
+	
+	/**
+	 * The {@link WorldStateMessage#skippedMask} of a snapshot with the given sequence sent to this client next.
+	 */
+	public int skippedMask(final int sequence) {
+		if(lastSentSnapshot == WorldStateMessage.NO_BASELINE) {
+			return 0;
+		}
+		
+		final int skipped = sequence - lastSentSnapshot - 1;
+		final int shifted = skipped + 1 >= Integer.SIZE ? 0 : skippedMask << (skipped + 1);
+		
+		return (skipped >= Integer.SIZE ? -1 : (1 << skipped) - 1) | shifted;
+	}
+	
+	public void snapshotSent(final int sequence) {
+		skippedMask = skippedMask(sequence);
+		lastSentSnapshot = sequence;
+	}
+	
+	/**
+	 * Whether the client decoded the given snapshot, as far as the last 64 sequences go.
+	 */
+	public boolean hasAcknowledged(final int sequence) {
+		final int age = acknowledgedSnapshot - sequence;
+		
+		return sequence != WorldStateMessage.NO_BASELINE && 
+			   age >= 0 && 
+			   age < Long.SIZE && 
+			   (acknowledgedMask & (1L << age)) != 0;
 	}
 	
-}
\ No newline at end of file
+}
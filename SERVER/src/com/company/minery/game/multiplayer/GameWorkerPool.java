@@ -0,0 +1,180 @@
+package com.company.minery.game.multiplayer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.badlogic.gdx.utils.Array;
+import com.company.minery.game.GameUpdate;
+
+/**
+ * Simulates games on a fixed set of threads. A game is given to the least loaded shard when it is {@link #add(GameConnection)
+ * added} and stays there until it is removed, so one thread keeps simulating the same matches. The calling thread runs shard 0
+ * and every other shard has its own pinned worker with its own {@link GameUpdate}. {@link #process()} returns only after all
+ * shards are done, so anything done afterwards sees every game of the tick fully simulated.
+ */
+public final class GameWorkerPool {
+	
+	public static interface Task {
+		public void process(final GameConnection gameConnection,
+							final GameUpdate worldUpdate);
+	}
+	
+	private final class Worker extends Thread {
+		
+		private final int shard;
+		
+		public Worker(final int shard) {
+			super("GameWorker-" + shard);
+			this.shard = shard;
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			int processedTick = 0;
+			
+			while(true) {
+				while(tick == processedTick) {
+					if(isInterrupted()) {
+						return; // Disposed.
+					}
+					LockSupport.park(this);
+				}
+				
+				processedTick = tick;
+				processShard(shard);
+				
+				if(pending.decrementAndGet() == 0) {
+					LockSupport.unpark(caller);
+				}
+			}
+		}
+		
+	}
+	
+	private final Task task;
+	private final GameUpdate[] worldUpdates;
+	private final Array<Array<GameConnection>> shardGames;
+	private final Worker[] workers;
+	private final AtomicInteger pending = new AtomicInteger();
+	
+	// Shard lists only change between calls to process, the write to tick publishes them to the workers.
+	private volatile Throwable failure;
+	
+	// Workers wait for tick to move on and the last one to finish wakes the caller. Parking doesn't allocate, a CyclicBarrier
+	// allocates on every await.
+	private volatile int tick;
+	private volatile Thread caller;
+	
+	public GameWorkerPool(final int shards,
+						  final Task task) {
+		
+		if(shards <= 0) {
+			throw new IllegalArgumentException("shards must be positive");
+		}
+		
+		this.task = task;
+		this.worldUpdates = new GameUpdate[shards];
+		this.shardGames = new Array<Array<GameConnection>>(shards);
+		this.workers = new Worker[shards - 1];
+		
+		for(int i = 0; i < shards; i += 1) {
+			worldUpdates[i] = new GameUpdate();
+			shardGames.add(new Array<GameConnection>(false, 16));
+		}
+		
+		for(int i = 0; i < workers.length; i += 1) {
+			workers[i] = new Worker(i + 1);
+			workers[i].start();
+		}
+	}
+	
+	public int shards() {
+		return worldUpdates.length;
+	}
+	
+	/**
+	 * Assigns the game to the shard with the fewest games.
+	 */
+	public void add(final GameConnection gameConnection) {
+		int shard = 0;
+		
+		for(int i = 1; i < shardGames.size; i += 1) {
+			if(shardGames.get(i).size < shardGames.get(shard).size) {
+				shard = i;
+			}
+		}
+		
+		final Array<GameConnection> games = shardGames.get(shard);
+		
+		gameConnection.shard = shard;
+		gameConnection.shardIndex = games.size;
+		games.add(gameConnection);
+	}
+	
+	public void remove(final GameConnection gameConnection) {
+		if(gameConnection.shard == -1) {
+			return;
+		}
+		
+		// The shard's last game takes the freed slot, the others keep theirs.
+		final Array<GameConnection> games = shardGames.get(gameConnection.shard);
+		final GameConnection last = games.pop();
+		
+		if(last != gameConnection) {
+			games.set(gameConnection.shardIndex, last);
+			last.shardIndex = gameConnection.shardIndex;
+		}
+		
+		gameConnection.shard = -1;
+		gameConnection.shardIndex = -1;
+	}
+	
+	public void process() {
+		if(workers.length == 0) {
+			processShard(0);
+		}
+		else {
+			caller = Thread.currentThread();
+			pending.set(workers.length);
+			tick += 1;
+			
+			for(int i = 0; i < workers.length; i += 1) {
+				LockSupport.unpark(workers[i]);
+			}
+			
+			processShard(0);
+			
+			while(pending.get() != 0) {
+				LockSupport.park(this);
+			}
+		}
+		
+		final Throwable failure = this.failure;
+		if(failure != null) {
+			this.failure = null;
+			throw new RuntimeException("Game simulation failed", failure);
+		}
+	}
+	
+	public void dispose() {
+		for(int i = 0; i < workers.length; i += 1) {
+			workers[i].interrupt();
+		}
+	}
+	
+	private void processShard(final int shard) {
+		final Array<GameConnection> games = shardGames.get(shard);
+		final GameUpdate worldUpdate = worldUpdates[shard];
+		
+		try {
+			for(int i = 0; i < games.size; i += 1) {
+				task.process(games.get(i), worldUpdate);
+			}
+		}
+		catch(final Throwable ex) {
+			failure = ex;
+		}
+	}
+	
+}
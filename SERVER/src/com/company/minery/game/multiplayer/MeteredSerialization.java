@@ -0,0 +1,55 @@
+package com.company.minery.game.multiplayer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.company.minery.utils.kryonet.Connection;
+import com.company.minery.utils.kryonet.KryoSerialization;
+
+/**
+ * Kryo serialization that counts every object written and read along with its serialized size and the time spent in kryo.
+ * Every UDP datagram carries one object, so the counts double as UDP packet counts, except that a broadcast is serialized
+ * and counted once no matter how many connections it goes to. Sizes are payload bytes, the four byte TCP length prefix is
+ * not included.
+ */
+public final class MeteredSerialization extends KryoSerialization {
+	
+	private final AtomicLong messagesOut = new AtomicLong(); /**/ public long messagesOut() { return messagesOut.get(); }
+	private final AtomicLong messagesIn = new AtomicLong(); /**/ public long messagesIn() { return messagesIn.get(); }
+	private final AtomicLong bytesOut = new AtomicLong(); /**/ public long bytesOut() { return bytesOut.get(); }
+	private final AtomicLong bytesIn = new AtomicLong(); /**/ public long bytesIn() { return bytesIn.get(); }
+	private final AtomicLong writeNanos = new AtomicLong(); /**/ public long writeNanos() { return writeNanos.get(); }
+	private final AtomicLong readNanos = new AtomicLong(); /**/ public long readNanos() { return readNanos.get(); }
+	
+	@Override
+	public void write(final Connection connection,
+					  final ByteBuffer buffer,
+					  final Object object) {
+		
+		final int start = buffer.position();
+		final long startTime = System.nanoTime();
+		
+		super.write(connection, buffer, object);
+		
+		writeNanos.addAndGet(System.nanoTime() - startTime);
+		bytesOut.addAndGet(buffer.position() - start);
+		messagesOut.incrementAndGet();
+	}
+	
+	@Override
+	public Object read(final Connection connection,
+					   final ByteBuffer buffer) {
+		
+		final int start = buffer.position();
+		final long startTime = System.nanoTime();
+		
+		final Object object = super.read(connection, buffer);
+		
+		readNanos.addAndGet(System.nanoTime() - startTime);
+		bytesIn.addAndGet(buffer.position() - start);
+		messagesIn.incrementAndGet();
+		
+		return object;
+	}
+	
+}
@@ -0,0 +1,123 @@
+package com.company.minery.game.multiplayer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link ServerMetrics} as plain text on GET /metrics, one "name value" or "name{quantile="q"} value" line per number.
+ * Only binds to the loopback interface, scrapers are expected to run on the same host.
+ */
+public final class MetricsEndpoint {
+	
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 1 };
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private final ServerMetrics metrics;
+	private final HttpServer httpServer;
+	
+	public MetricsEndpoint(final ServerMetrics metrics,
+						   final int port) throws IOException {
+		
+		this.metrics = metrics;
+		
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/metrics", new HttpHandler() {
+			
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+			
+		});
+	}
+	
+	public void start() {
+		httpServer.start();
+	}
+	
+	public void stop() {
+		httpServer.stop(0);
+	}
+	
+	private void respond(final HttpExchange exchange) throws IOException {
+		try {
+			if(!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			
+			final byte[] body = format().getBytes(UTF_8);
+			
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			
+			final OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		}
+		finally {
+			exchange.close();
+		}
+	}
+	
+	private String format() {
+		final StringBuilder text = new StringBuilder(2048);
+		
+		text.append("# Durations in microseconds over the last ").append(metrics.window()).append(" ticks\n");
+		
+		for(int i = 0; i < ServerMetrics.PHASE_COUNT; i += 1) {
+			final String name = "minery_" + ServerMetrics.PHASE_NAMES[i] + "_micros";
+			
+			for(int ii = 0; ii < QUANTILES.length; ii += 1) {
+				text.append(name).append("{quantile=\"").append(QUANTILES[ii]).append("\"} ");
+				append(text, metrics.percentileMicros(i, QUANTILES[ii]));
+			}
+		}
+		
+		line(text, "minery_active_matches", metrics.getActiveMatches());
+		line(text, "minery_matchmaking_queue_depth", metrics.getMatchmakingQueueDepth());
+		line(text, "minery_bytes_in_per_second", metrics.getBytesInPerSecond());
+		line(text, "minery_bytes_out_per_second", metrics.getBytesOutPerSecond());
+		line(text, "minery_packets_in_per_second", metrics.getPacketsInPerSecond());
+		line(text, "minery_packets_out_per_second", metrics.getPacketsOutPerSecond());
+		line(text, "minery_datagrams_out_per_second", metrics.getDatagramsOutPerSecond());
+		line(text, "minery_serialization_micros_per_packet", metrics.getSerializationMicrosPerPacket());
+		line(text, "minery_congestion_count", metrics.getCongestionCount());
+		line(text, "minery_gc_count", metrics.getGcCount());
+		line(text, "minery_gc_time_millis", metrics.getGcTimeMillis());
+		line(text, "minery_tick_allocated_bytes_per_second", metrics.getTickAllocatedBytesPerSecond());
+		line(text, "minery_heap_used_bytes", metrics.getHeapUsedBytes());
+		
+		return text.toString();
+	}
+	
+	private static void line(final StringBuilder text,
+							 final String name,
+							 final double value) {
+		
+		text.append(name).append(' ');
+		append(text, value);
+	}
+	
+	private static void line(final StringBuilder text,
+							 final String name,
+							 final long value) {
+		
+		text.append(name).append(' ').append(value).append('\n');
+	}
+	
+	private static void append(final StringBuilder text,
+							   final double value) {
+		
+		text.append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+	}
+	
+}
@@ -5,21 +5,38 @@ import com.company.minery.game.multiplayer.messages.ImpulseMessage;
 import com.company.minery.game.multiplayer.messages.PlayerMessage;
 import com.company.minery.game.multiplayer.messages.SpearMessage;
 import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+import com.company.minery.game.multiplayer.messages.WorldStateQuantizer;
+import com.company.minery.game.multiplayer.messages.WorldStateSerializer;
 import com.company.minery.utils.kryonet.EndPoint;
+import com.company.minery.utils.kryonet.KryoSerialization;
 import com.esotericsoftware.kryo.Kryo;
 
 public final class Multiplayer {
 
-	public static void register(final EndPoint endPoint) {
-		final Kryo kryo = endPoint.getKryo();
+	/**
+	 * Every thread serializing for the end point gets its own Kryo with these registrations, and with it its own
+	 * {@link WorldStateSerializer}.
+	 */
+	public static void register(final EndPoint endPoint,
+								final WorldStateQuantizer quantizer) {
 		
-		kryo.register(PlayerMessage.class);
-		kryo.register(SpearMessage.class);
-		kryo.register(WorldStateMessage.class);
-		kryo.register(ClientAssignmentMessage.class);
-		kryo.register(ImpulseMessage.class);
-		kryo.register(PlayerMessage[].class);
-		kryo.register(SpearMessage[].class);
+		final KryoSerialization serialization = (KryoSerialization) endPoint.getSerialization();
+		
+		serialization.addRegistrar(new KryoSerialization.Registrar() {
+			
+			@Override
+			public void register(final Kryo kryo) {
+				kryo.register(PlayerMessage.class);
+				kryo.register(SpearMessage.class);
+				kryo.register(WorldStateMessage.class, new WorldStateSerializer(quantizer));
+				kryo.register(ClientAssignmentMessage.class);
+				kryo.register(ImpulseMessage.class);
+				kryo.register(PlayerMessage[].class);
+				kryo.register(SpearMessage[].class);
+				kryo.register(long[].class);
+			}
+			
+		});
 	}
 	
-}
\ No newline at end of file
+}
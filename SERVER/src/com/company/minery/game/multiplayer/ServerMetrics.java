@@ -0,0 +1,322 @@
+package com.company.minery.game.multiplayer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Tick, matchmaking and network numbers of a {@link GameServer}. Only the tick thread records ticks, the durations of the last
+ * {@link #window} ticks are kept per phase and readers sort a copy on demand. Readers don't lock, so a read racing a tick
+ * may see a sample from either side of it.
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+	
+	public static final int PHASE_TICK = 0;
+	public static final int PHASE_PROCESS_IMPULSES = 1;
+	public static final int PHASE_PROCESS_DEAD_GAMES = 2;
+	public static final int PHASE_PROCESS_NEW_GAMES = 3;
+	public static final int PHASE_PROCESS_GAMES = 4;
+	public static final int PHASE_COUNT = 5;
+	
+	public static final String[] PHASE_NAMES = {
+		"tick",
+		"process_impulses",
+		"process_dead_games",
+		"process_new_games",
+		"process_games"
+	};
+	
+	private static final String OBJECT_NAME = "com.company.minery:type=ServerMetrics";
+	private static final long RATE_INTERVAL = 1000000000L;
+	
+	private final MeteredSerialization serialization;
+	private final int window;
+	private final long[][] samples;
+	private int sampleIndex;
+	private volatile int sampleCount;
+	
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+	
+	private volatile int activeMatches;
+	private volatile int matchmakingQueueDepth;
+	
+	private volatile double bytesInPerSecond;
+	private volatile double bytesOutPerSecond;
+	private volatile double packetsInPerSecond;
+	private volatile double packetsOutPerSecond;
+	private volatile double datagramsOutPerSecond;
+	private volatile double serializationMicrosPerPacket;
+	private volatile double tickAllocatedBytesPerSecond;
+	
+	// Counted by the network threads.
+	private final AtomicLong congestions = new AtomicLong();
+	
+	// Counter values at the last rate sample, only touched by the tick thread.
+	private long lastSampleTime;
+	private long lastBytesIn;
+	private long lastBytesOut;
+	private long lastPacketsIn;
+	private long lastPacketsOut;
+	private long lastDatagramsOut;
+	private long lastSerializationNanos;
+	private long lastAllocatedBytes;
+	
+	public ServerMetrics(final MeteredSerialization serialization,
+						 final int window) {
+		
+		if(window <= 0) {
+			throw new IllegalArgumentException("window must be positive");
+		}
+		
+		this.serialization = serialization;
+		this.window = window;
+		this.samples = new long[PHASE_COUNT][window];
+	}
+	
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+	}
+	
+	public void unregister() throws JMException {
+		final ObjectName name = new ObjectName(OBJECT_NAME);
+		
+		if(ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+	}
+	
+	/**
+	 * Called by the tick thread once per tick with the nanoseconds spent in each phase and the UDP datagrams sent so far.
+	 */
+	public void recordTick(final long processImpulsesNanos,
+						   final long processDeadGamesNanos,
+						   final long processNewGamesNanos,
+						   final long processGamesNanos,
+						   final int activeMatches,
+						   final int matchmakingQueueDepth, 
+						   final long datagramsOut) {
+		
+		final int index = sampleIndex;
+		
+		samples[PHASE_TICK][index] = processImpulsesNanos + processDeadGamesNanos + processNewGamesNanos + processGamesNanos;
+		samples[PHASE_PROCESS_IMPULSES][index] = processImpulsesNanos;
+		samples[PHASE_PROCESS_DEAD_GAMES][index] = processDeadGamesNanos;
+		samples[PHASE_PROCESS_NEW_GAMES][index] = processNewGamesNanos;
+		samples[PHASE_PROCESS_GAMES][index] = processGamesNanos;
+		
+		sampleIndex = index + 1 == window ? 0 : index + 1;
+		
+		if(sampleCount < window) {
+			sampleCount += 1;
+		}
+		
+		this.activeMatches = activeMatches;
+		this.matchmakingQueueDepth = matchmakingQueueDepth;
+		
+		final long now = System.nanoTime();
+		
+		if(lastSampleTime == 0) {
+			// The first sample only sets the baselines.
+			lastSampleTime = now;
+			sampleRates(0, datagramsOut);
+		}
+		else if(now - lastSampleTime >= RATE_INTERVAL) {
+			final double seconds = (now - lastSampleTime) / 1000000000.0;
+			lastSampleTime = now;
+			sampleRates(seconds, datagramsOut);
+		}
+	}
+	
+	private void sampleRates(final double seconds,
+							 final long datagramsOut) {
+		
+		final long bytesIn = serialization.bytesIn();
+		final long bytesOut = serialization.bytesOut();
+		final long packetsIn = serialization.messagesIn();
+		final long packetsOut = serialization.messagesOut();
+		final long serializationNanos = serialization.writeNanos();
+		final long allocatedBytes = allocatedBytes();
+		
+		if(seconds > 0) {
+			bytesInPerSecond = (bytesIn - lastBytesIn) / seconds;
+			bytesOutPerSecond = (bytesOut - lastBytesOut) / seconds;
+			packetsInPerSecond = (packetsIn - lastPacketsIn) / seconds;
+			packetsOutPerSecond = (packetsOut - lastPacketsOut) / seconds;
+			datagramsOutPerSecond = (datagramsOut - lastDatagramsOut) / seconds;
+			serializationMicrosPerPacket = packetsOut > lastPacketsOut ? 
+										   (serializationNanos - lastSerializationNanos) / 1000.0 / (packetsOut - lastPacketsOut) : 
+										   0;
+			tickAllocatedBytesPerSecond = allocatedBytes < 0 ? Double.NaN : (allocatedBytes - lastAllocatedBytes) / seconds;
+		}
+		
+		lastBytesIn = bytesIn;
+		lastBytesOut = bytesOut;
+		lastPacketsIn = packetsIn;
+		lastPacketsOut = packetsOut;
+		lastDatagramsOut = datagramsOut;
+		lastSerializationNanos = serializationNanos;
+		lastAllocatedBytes = allocatedBytes;
+	}
+	
+	/**
+	 * Called by a network thread when a connection's TCP write buffer passed its high watermark.
+	 */
+	public void recordCongestion() {
+		congestions.incrementAndGet();
+	}
+	
+	/**
+	 * Bytes allocated by the tick thread so far, or -1 if the JVM can't tell.
+	 */
+	private long allocatedBytes() {
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+	
+	/**
+	 * Duration of the given phase at the given quantile over the tick window, in microseconds.
+	 */
+	public double percentileMicros(final int phase,
+								   final double quantile) {
+		
+		final int count = sampleCount;
+		
+		if(count == 0) {
+			return 0;
+		}
+		
+		final long[] sorted = Arrays.copyOf(samples[phase], count);
+		Arrays.sort(sorted);
+		
+		final int index = Math.max(0, Math.min(count - 1, (int) Math.ceil(quantile * count) - 1));
+		return sorted[index] / 1000.0;
+	}
+	
+	public int window() {
+		return window;
+	}
+	
+	@Override
+	public double getTickP50Micros() {
+		return percentileMicros(PHASE_TICK, 0.5);
+	}
+	
+	@Override
+	public double getTickP99Micros() {
+		return percentileMicros(PHASE_TICK, 0.99);
+	}
+	
+	@Override
+	public double getTickMaxMicros() {
+		return percentileMicros(PHASE_TICK, 1);
+	}
+	
+	@Override
+	public double getProcessImpulsesP99Micros() {
+		return percentileMicros(PHASE_PROCESS_IMPULSES, 0.99);
+	}
+	
+	@Override
+	public double getProcessDeadGamesP99Micros() {
+		return percentileMicros(PHASE_PROCESS_DEAD_GAMES, 0.99);
+	}
+	
+	@Override
+	public double getProcessNewGamesP99Micros() {
+		return percentileMicros(PHASE_PROCESS_NEW_GAMES, 0.99);
+	}
+	
+	@Override
+	public double getProcessGamesP99Micros() {
+		return percentileMicros(PHASE_PROCESS_GAMES, 0.99);
+	}
+	
+	@Override
+	public int getActiveMatches() {
+		return activeMatches;
+	}
+	
+	@Override
+	public int getMatchmakingQueueDepth() {
+		return matchmakingQueueDepth;
+	}
+	
+	@Override
+	public double getBytesInPerSecond() {
+		return bytesInPerSecond;
+	}
+	
+	@Override
+	public double getBytesOutPerSecond() {
+		return bytesOutPerSecond;
+	}
+	
+	@Override
+	public double getPacketsInPerSecond() {
+		return packetsInPerSecond;
+	}
+	
+	@Override
+	public double getPacketsOutPerSecond() {
+		return packetsOutPerSecond;
+	}
+	
+	@Override
+	public double getDatagramsOutPerSecond() {
+		return datagramsOutPerSecond;
+	}
+	
+	@Override
+	public double getSerializationMicrosPerPacket() {
+		return serializationMicrosPerPacket;
+	}
+	
+	@Override
+	public long getCongestionCount() {
+		return congestions.get();
+	}
+	
+	@Override
+	public long getGcCount() {
+		long count = 0;
+		
+		for(int i = 0; i < collectors.size(); i += 1) {
+			count += Math.max(0, collectors.get(i).getCollectionCount());
+		}
+		
+		return count;
+	}
+	
+	@Override
+	public long getGcTimeMillis() {
+		long time = 0;
+		
+		for(int i = 0; i < collectors.size(); i += 1) {
+			time += Math.max(0, collectors.get(i).getCollectionTime());
+		}
+		
+		return time;
+	}
+	
+	@Override
+	public double getTickAllocatedBytesPerSecond() {
+		return tickAllocatedBytesPerSecond;
+	}
+	
+	@Override
+	public long getHeapUsedBytes() {
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+	
+}
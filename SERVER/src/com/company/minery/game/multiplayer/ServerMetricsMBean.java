@@ -0,0 +1,34 @@
+package com.company.minery.game.multiplayer;
+
+/**
+ * JMX view of {@link ServerMetrics}. Durations are in microseconds over the recent tick window, rates are per second and
+ * refreshed once a second.
+ */
+public interface ServerMetricsMBean {
+	
+	public double getTickP50Micros();
+	public double getTickP99Micros();
+	public double getTickMaxMicros();
+	
+	public double getProcessImpulsesP99Micros();
+	public double getProcessDeadGamesP99Micros();
+	public double getProcessNewGamesP99Micros();
+	public double getProcessGamesP99Micros();
+	
+	public int getActiveMatches();
+	public int getMatchmakingQueueDepth();
+	
+	public double getBytesInPerSecond();
+	public double getBytesOutPerSecond();
+	public double getPacketsInPerSecond();
+	public double getPacketsOutPerSecond();
+	public double getDatagramsOutPerSecond();
+	public double getSerializationMicrosPerPacket();
+	public long getCongestionCount();
+	
+	public long getGcCount();
+	public long getGcTimeMillis();
+	public double getTickAllocatedBytesPerSecond();
+	public long getHeapUsedBytes();
+	
+}
@@ -0,0 +1,417 @@
+package com.company.minery.game.multiplayer;
+
+import com.company.minery.game.multiplayer.messages.ObjectMessage;
+import com.company.minery.game.multiplayer.messages.PlayerMessage;
+import com.company.minery.game.multiplayer.messages.SpearMessage;
+import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+
+/**
+ * Encodes full world states as deltas against a baseline the receiver already has and decodes them back. Objects that did not
+ * change since the baseline are left out entirely, changed objects only carry their changed fields.
+ */
+public final class SnapshotDelta {
+	
+	/**
+	 * Both states have to list their players and spears in uid order, see {@link #sort(WorldStateMessage)}.
+	 *
+	 * @param baseline May be null, the full state is returned then.
+	 * @param delta Filled with the delta and returned otherwise, its messages are reused.
+	 */
+	public static WorldStateMessage encode(final WorldStateMessage current,
+										   final WorldStateMessage baseline,
+										   final WorldStateMessage delta) {
+		
+		if(baseline == null) {
+			return current;
+		}
+		
+		final PlayerMessage[] players = current.players;
+		final SpearMessage[] spears = current.spears;
+		final PlayerMessage[] baselinePlayers = baseline.players;
+		final SpearMessage[] baselineSpears = baseline.spears;
+		
+		delta.messageTime = current.messageTime;
+		delta.sequence = current.sequence;
+		delta.baseline = baseline.sequence;
+		
+		// Room for the most that can change, the counts are set to what did once both lists are merged.
+		delta.setCounts(current.playerCount, current.spearCount, baseline.playerCount + baseline.spearCount);
+		
+		final long[] removedUids = delta.removedUids;
+		int removed = 0;
+		
+		// Players
+		{
+			int changed = 0;
+			int base = 0;
+			
+			for(int i = 0; i < current.playerCount; i += 1) {
+				final PlayerMessage player = players[i];
+				
+				// Baseline players ordered before this one are gone.
+				while(base < baseline.playerCount && baselinePlayers[base].uid < player.uid) {
+					removedUids[removed++] = baselinePlayers[base++].uid;
+				}
+				
+				final PlayerMessage baselinePlayer = base < baseline.playerCount && baselinePlayers[base].uid == player.uid ? 
+													 baselinePlayers[base++] : 
+													 null;
+				final int fields = diff(player, baselinePlayer);
+				
+				if(fields != 0) {
+					final PlayerMessage message = delta.players[changed++];
+					apply(message, player, PlayerMessage.ALL_FIELDS);
+					message.changedFields = fields;
+				}
+			}
+			
+			while(base < baseline.playerCount) {
+				removedUids[removed++] = baselinePlayers[base++].uid;
+			}
+			
+			delta.playerCount = changed;
+		}
+		
+		// Spears
+		{
+			int changed = 0;
+			int base = 0;
+			
+			for(int i = 0; i < current.spearCount; i += 1) {
+				final SpearMessage spear = spears[i];
+				
+				while(base < baseline.spearCount && baselineSpears[base].uid < spear.uid) {
+					removedUids[removed++] = baselineSpears[base++].uid;
+				}
+				
+				final SpearMessage baselineSpear = base < baseline.spearCount && baselineSpears[base].uid == spear.uid ? 
+												   baselineSpears[base++] : 
+												   null;
+				final int fields = diff(spear, baselineSpear);
+				
+				if(fields != 0) {
+					final SpearMessage message = delta.spears[changed++];
+					apply(message, spear, SpearMessage.ALL_FIELDS);
+					message.changedFields = fields;
+				}
+			}
+			
+			while(base < baseline.spearCount) {
+				removedUids[removed++] = baselineSpears[base++].uid;
+			}
+			
+			delta.spearCount = changed;
+		}
+		
+		delta.removedCount = removed;
+		return delta;
+	}
+	
+	/**
+	 * The decoded state lists its players and spears in uid order like the states it was encoded from.
+	 *
+	 * @param baseline Must be the snapshot named by the delta's baseline, ignored for full states.
+	 */
+	public static WorldStateMessage decode(final WorldStateMessage delta,
+										   final WorldStateMessage baseline) {
+		
+		if(delta.baseline == WorldStateMessage.NO_BASELINE) {
+			return delta;
+		}
+		
+		final PlayerMessage[] baselinePlayers = baseline.players;
+		final SpearMessage[] baselineSpears = baseline.spears;
+		final long[] removedUids = delta.removedUids;
+		
+		final WorldStateMessage state = new WorldStateMessage();
+		state.messageTime = delta.messageTime;
+		state.sequence = delta.sequence;
+		
+		// Usually nothing is added, the arrays only grow when something is.
+		state.setCounts(baseline.playerCount, baseline.spearCount, 0);
+		
+		// Removals list the baseline's players and then its spears in the order they are merged in.
+		int removed = 0;
+		
+		// Players
+		{
+			int count = 0;
+			int base = 0;
+			int change = 0;
+			
+			while(base < baseline.playerCount || change < delta.playerCount) {
+				final PlayerMessage baselinePlayer = base < baseline.playerCount ? baselinePlayers[base] : null;
+				final PlayerMessage changedPlayer = change < delta.playerCount ? delta.players[change] : null;
+				
+				if(baselinePlayer != null && removed < delta.removedCount && removedUids[removed] == baselinePlayer.uid) {
+					removed += 1;
+					base += 1;
+					continue;
+				}
+				
+				if(count == state.players.length) {
+					state.setCounts(count + 1, state.spearCount, 0);
+				}
+				
+				final PlayerMessage message = state.players[count++];
+				
+				if(changedPlayer == null || baselinePlayer != null && baselinePlayer.uid < changedPlayer.uid) {
+					apply(message, baselinePlayer, PlayerMessage.ALL_FIELDS);
+					base += 1;
+				}
+				else if(baselinePlayer == null || changedPlayer.uid < baselinePlayer.uid) {
+					apply(message, changedPlayer, PlayerMessage.ALL_FIELDS);
+					change += 1;
+				}
+				else {
+					apply(message, baselinePlayer, PlayerMessage.ALL_FIELDS);
+					apply(message, changedPlayer, changedPlayer.changedFields);
+					base += 1;
+					change += 1;
+				}
+			}
+			
+			state.playerCount = count;
+		}
+		
+		// Spears
+		{
+			int count = 0;
+			int base = 0;
+			int change = 0;
+			
+			while(base < baseline.spearCount || change < delta.spearCount) {
+				final SpearMessage baselineSpear = base < baseline.spearCount ? baselineSpears[base] : null;
+				final SpearMessage changedSpear = change < delta.spearCount ? delta.spears[change] : null;
+				
+				if(baselineSpear != null && removed < delta.removedCount && removedUids[removed] == baselineSpear.uid) {
+					removed += 1;
+					base += 1;
+					continue;
+				}
+				
+				if(count == state.spears.length) {
+					state.setCounts(state.playerCount, count + 1, 0);
+				}
+				
+				final SpearMessage message = state.spears[count++];
+				
+				if(changedSpear == null || baselineSpear != null && baselineSpear.uid < changedSpear.uid) {
+					apply(message, baselineSpear, SpearMessage.ALL_FIELDS);
+					base += 1;
+				}
+				else if(baselineSpear == null || changedSpear.uid < baselineSpear.uid) {
+					apply(message, changedSpear, SpearMessage.ALL_FIELDS);
+					change += 1;
+				}
+				else {
+					apply(message, baselineSpear, SpearMessage.ALL_FIELDS);
+					apply(message, changedSpear, changedSpear.changedFields);
+					base += 1;
+					change += 1;
+				}
+			}
+			
+			state.spearCount = count;
+		}
+		
+		return state;
+	}
+	
+	/**
+	 * Orders the state's players and spears by uid, as {@link #encode} expects. Objects mostly keep their order from one tick
+	 * to the next, so this is close to a single pass.
+	 */
+	public static void sort(final WorldStateMessage state) {
+		final PlayerMessage[] players = state.players;
+		final SpearMessage[] spears = state.spears;
+		
+		for(int i = 1; i < state.playerCount; i += 1) {
+			final PlayerMessage player = players[i];
+			int j = i - 1;
+			
+			while(j >= 0 && players[j].uid > player.uid) {
+				players[j + 1] = players[j];
+				j -= 1;
+			}
+			players[j + 1] = player;
+		}
+		
+		for(int i = 1; i < state.spearCount; i += 1) {
+			final SpearMessage spear = spears[i];
+			int j = i - 1;
+			
+			while(j >= 0 && spears[j].uid > spear.uid) {
+				spears[j + 1] = spears[j];
+				j -= 1;
+			}
+			spears[j + 1] = spear;
+		}
+	}
+	
+	public static int diff(final PlayerMessage current,
+						   final PlayerMessage baseline) {
+		
+		if(baseline == null) {
+			return PlayerMessage.ALL_FIELDS;
+		}
+		
+		int fields = diffObject(current, baseline);
+		
+		if(current.flip != baseline.flip) {
+			fields |= PlayerMessage.FIELD_FLIP;
+		}
+		if(current.requestsAttack != baseline.requestsAttack) {
+			fields |= PlayerMessage.FIELD_REQUESTS_ATTACK;
+		}
+		if(current.hasWeapon != baseline.hasWeapon) {
+			fields |= PlayerMessage.FIELD_HAS_WEAPON;
+		}
+		if(current.attackX != baseline.attackX) {
+			fields |= PlayerMessage.FIELD_ATTACK_X;
+		}
+		if(current.attackY != baseline.attackY) {
+			fields |= PlayerMessage.FIELD_ATTACK_Y;
+		}
+		if(current.ignoreOwnSpear != baseline.ignoreOwnSpear) {
+			fields |= PlayerMessage.FIELD_IGNORE_OWN_SPEAR;
+		}
+		if(current.ownSpearUid != baseline.ownSpearUid) {
+			fields |= PlayerMessage.FIELD_OWN_SPEAR_UID;
+		}
+		if(current.lastImpulse != baseline.lastImpulse) {
+			fields |= PlayerMessage.FIELD_LAST_IMPULSE;
+		}
+		
+		return fields;
+	}
+	
+	public static int diff(final SpearMessage current,
+						   final SpearMessage baseline) {
+		
+		if(baseline == null) {
+			return SpearMessage.ALL_FIELDS;
+		}
+		
+		int fields = diffObject(current, baseline);
+		
+		if(current.lastRotation != baseline.lastRotation) {
+			fields |= SpearMessage.FIELD_LAST_ROTATION;
+		}
+		
+		return fields;
+	}
+	
+	/**
+	 * Copies the given fields of source into target.
+	 */
+	public static void apply(final PlayerMessage target,
+							 final PlayerMessage source,
+							 final int fields) {
+		
+		applyObject(target, source, fields);
+		
+		if((fields & PlayerMessage.FIELD_FLIP) != 0) {
+			target.flip = source.flip;
+		}
+		if((fields & PlayerMessage.FIELD_REQUESTS_ATTACK) != 0) {
+			target.requestsAttack = source.requestsAttack;
+		}
+		if((fields & PlayerMessage.FIELD_HAS_WEAPON) != 0) {
+			target.hasWeapon = source.hasWeapon;
+		}
+		if((fields & PlayerMessage.FIELD_ATTACK_X) != 0) {
+			target.attackX = source.attackX;
+		}
+		if((fields & PlayerMessage.FIELD_ATTACK_Y) != 0) {
+			target.attackY = source.attackY;
+		}
+		if((fields & PlayerMessage.FIELD_IGNORE_OWN_SPEAR) != 0) {
+			target.ignoreOwnSpear = source.ignoreOwnSpear;
+		}
+		if((fields & PlayerMessage.FIELD_OWN_SPEAR_UID) != 0) {
+			target.ownSpearUid = source.ownSpearUid;
+		}
+		if((fields & PlayerMessage.FIELD_LAST_IMPULSE) != 0) {
+			target.lastImpulse = source.lastImpulse;
+		}
+		
+		target.changedFields = PlayerMessage.ALL_FIELDS;
+	}
+	
+	/**
+	 * Copies the given fields of source into target.
+	 */
+	public static void apply(final SpearMessage target,
+							 final SpearMessage source,
+							 final int fields) {
+		
+		applyObject(target, source, fields);
+		
+		if((fields & SpearMessage.FIELD_LAST_ROTATION) != 0) {
+			target.lastRotation = source.lastRotation;
+		}
+		
+		target.changedFields = SpearMessage.ALL_FIELDS;
+	}
+	
+	private static int diffObject(final ObjectMessage current,
+								  final ObjectMessage baseline) {
+		
+		int fields = 0;
+		
+		if(current.x != baseline.x) {
+			fields |= ObjectMessage.FIELD_X;
+		}
+		if(current.y != baseline.y) {
+			fields |= ObjectMessage.FIELD_Y;
+		}
+		if(current.movementDirection != baseline.movementDirection) {
+			fields |= ObjectMessage.FIELD_MOVEMENT_DIRECTION;
+		}
+		if(current.velocityX != baseline.velocityX) {
+			fields |= ObjectMessage.FIELD_VELOCITY_X;
+		}
+		if(current.velocityY != baseline.velocityY) {
+			fields |= ObjectMessage.FIELD_VELOCITY_Y;
+		}
+		if(current.requestsJump != baseline.requestsJump) {
+			fields |= ObjectMessage.FIELD_REQUESTS_JUMP;
+		}
+		if(current.isJumping != baseline.isJumping) {
+			fields |= ObjectMessage.FIELD_IS_JUMPING;
+		}
+		
+		return fields;
+	}
+	
+	private static void applyObject(final ObjectMessage target,
+									final ObjectMessage source,
+									final int fields) {
+		
+		target.uid = source.uid;
+		
+		if((fields & ObjectMessage.FIELD_X) != 0) {
+			target.x = source.x;
+		}
+		if((fields & ObjectMessage.FIELD_Y) != 0) {
+			target.y = source.y;
+		}
+		if((fields & ObjectMessage.FIELD_MOVEMENT_DIRECTION) != 0) {
+			target.movementDirection = source.movementDirection;
+		}
+		if((fields & ObjectMessage.FIELD_VELOCITY_X) != 0) {
+			target.velocityX = source.velocityX;
+		}
+		if((fields & ObjectMessage.FIELD_VELOCITY_Y) != 0) {
+			target.velocityY = source.velocityY;
+		}
+		if((fields & ObjectMessage.FIELD_REQUESTS_JUMP) != 0) {
+			target.requestsJump = source.requestsJump;
+		}
+		if((fields & ObjectMessage.FIELD_IS_JUMPING) != 0) {
+			target.isJumping = source.isJumping;
+		}
+	}
+	
+}
@@ -0,0 +1,70 @@
+package com.company.minery.game.multiplayer;
+
+import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+
+/**
+ * Ring of the most recent full world states, looked up by sequence to serve as delta baselines.
+ */
+public final class SnapshotHistory {
+	
+	private final WorldStateMessage[] snapshots;
+	
+	public SnapshotHistory(final int capacity) {
+		this.snapshots = new WorldStateMessage[capacity];
+	}
+	
+	public void put(final WorldStateMessage snapshot) {
+		snapshots[index(snapshot.sequence)] = snapshot;
+	}
+	
+	/**
+	 * Returns null if the snapshot was never stored or has already been overwritten.
+	 */
+	public WorldStateMessage get(final int sequence) {
+		if(sequence == WorldStateMessage.NO_BASELINE) {
+			return null;
+		}
+		
+		final WorldStateMessage snapshot = snapshots[index(sequence)];
+		return snapshot != null && snapshot.sequence == sequence ? snapshot : null;
+	}
+	
+	/**
+	 * Bit i is set when the snapshot i + 1 sequences before the given one is stored, so a receiver can tell which of the
+	 * snapshots before its latest it got.
+	 */
+	public int receivedMask(final int sequence) {
+		if(sequence == WorldStateMessage.NO_BASELINE) {
+			return 0;
+		}
+		
+		int mask = 0;
+		
+		for(int i = 0; i < Integer.SIZE; i += 1) {
+			if(get(sequence - 1 - i) != null) {
+				mask |= 1 << i;
+			}
+		}
+		
+		return mask;
+	}
+	
+	/**
+	 * Returns whatever snapshot occupies the slot of the given sequence, or null if the slot is empty. Storing the given
+	 * sequence would evict it, so it can be refilled in place instead of allocating a new one.
+	 */
+	public WorldStateMessage recycle(final int sequence) {
+		return snapshots[index(sequence)];
+	}
+	
+	public void clear() {
+		for(int i = 0; i < snapshots.length; i += 1) {
+			snapshots[i] = null;
+		}
+	}
+	
+	private int index(final int sequence) {
+		return (sequence & Integer.MAX_VALUE) % snapshots.length;
+	}
+	
+}
@@ -0,0 +1,192 @@
+package com.company.minery.game.multiplayer;
+
+import com.company.minery.Constants;
+
+/**
+ * Decides which ticks a client is sent a snapshot on. The client gets a budget of bytes per second that grows steadily while
+ * its link keeps up and is cut when it falls behind, at most once per return trip so one episode is not punished repeatedly.
+ * The snapshot rate is the budget over the average snapshot size, so games with larger snapshots are throttled first.
+ *
+ * A link falls behind when its return trip time grows over the usual one, when sent snapshots go unacknowledged longer than
+ * the return trip explains or get lost, when its TCP socket has a backlog or when its UDP socket buffer was full.
+ */
+public final class SnapshotRate {
+	
+	// Weights of a new sample in the average snapshot size, the usual return trip time and the loss rate.
+	private static final float SIZE_WEIGHT = 0.1f;
+	private static final float RETURN_TRIP_WEIGHT = 0.1f;
+	private static final float LOSS_WEIGHT = 0.05f;
+	
+	// Credit a snapshot takes, a little below one so a rate of one per tick still sends every tick despite rounding.
+	private static final float SNAPSHOT_CREDIT = 0.999f;
+	
+	private final float minRate;
+	private final float maxRate;
+	
+	private float budget;
+	private float averageSize;
+	private float rate;
+	private float credit;
+	private float lossRate;
+	
+	// Lowest return trip time lately, rising slowly towards new samples so a longer route is not taken for queuing forever.
+	private int usualReturnTripTime = -1;
+	private int lastReturnTripTime = -1;
+	private long lastDecreaseTime;
+	private boolean dropped;
+	
+	// Bit i is set when lastSequence - i was sent and not yet found acknowledged or lost.
+	private long sentMask;
+	private int lastSequence = -1;
+	private long lastTime;
+	
+	// Oldest snapshot sent since the last acknowledged one.
+	private int pendingSequence = -1;
+	private long pendingTime;
+	
+	/**
+	 * @param minRate Snapshots per second the client gets however bad its link is.
+	 * @param maxRate Snapshots per second the client gets while its link keeps up, at most the tick rate.
+	 */
+	public SnapshotRate(final float minRate,
+						final float maxRate) {
+		
+		if(minRate <= 0 || maxRate < minRate) {
+			throw new IllegalArgumentException("invalid rates: " + minRate + ", " + maxRate);
+		}
+		
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.rate = maxRate;
+		this.credit = 1f;
+	}
+	
+	/**
+	 * Has to be called every tick, returns whether the client is due a snapshot.
+	 *
+	 * @param time Milliseconds.
+	 * @param deltaTime Seconds since the last tick.
+	 */
+	public boolean update(final long time,
+						  final float deltaTime,
+						  final GameServerConnection connection) {
+		
+		final int returnTripTime = connection.getReturnTripTime();
+		final int acknowledged = connection.acknowledgedSnapshot();
+		
+		// Batched snapshots only reach the socket when the batch is flushed, a full buffer is reported then.
+		if(connection.wasUdpBufferFull()) {
+			dropped = true;
+		}
+		
+		// The return trip time is measured now and then, only a new measurement says something.
+		final boolean measured = returnTripTime > 0 && returnTripTime != lastReturnTripTime;
+		lastReturnTripTime = returnTripTime;
+		
+		if(measured) {
+			usualReturnTripTime = usualReturnTripTime <= 0 || returnTripTime < usualReturnTripTime ?
+								  returnTripTime :
+								  usualReturnTripTime + Math.round((returnTripTime - usualReturnTripTime) * RETURN_TRIP_WEIGHT);
+		}
+		
+		// Snapshots sent before the newest acknowledged one either arrived or were lost.
+		for(int i = Math.max(lastSequence - acknowledged, 0); i < Long.SIZE && sentMask >>> i != 0; i += 1) {
+			if((sentMask & (1L << i)) != 0) {
+				lossRate += ((connection.hasAcknowledged(lastSequence - i) ? 0f : 1f) - lossRate) * LOSS_WEIGHT;
+				sentMask &= ~(1L << i);
+			}
+		}
+		
+		if(pendingSequence != -1 && acknowledged >= pendingSequence) {
+			pendingSequence = lastSequence > acknowledged ? lastSequence : -1;
+			pendingTime = lastTime;
+		}
+		
+		// Ticks without a snapshot for the client, say while the server caught up, don't count against its link.
+		final long acknowledgementAge = pendingSequence != -1 ? time - pendingTime : 0;
+		
+		final float interval = 1000f / rate;
+		final boolean behind = dropped ||
+							   lossRate > Constants.SNAPSHOT_LOSS_THRESHOLD ||
+							   connection.getTcpWriteBufferSize() > Constants.SNAPSHOT_BACKLOG_BYTES ||
+							   acknowledgementAge > Math.max(returnTripTime, 0) + Constants.SNAPSHOT_ACK_SLACK ||
+							   measured && returnTripTime > usualReturnTripTime + Constants.SNAPSHOT_RETURN_TRIP_SLACK;
+		dropped = false;
+		
+		// Nothing to scale the budget by until the first snapshot was sent.
+		if(averageSize > 0) {
+			if(!behind) {
+				budget += Constants.SNAPSHOT_RATE_INCREASE * averageSize * deltaTime;
+			}
+			else if(time - lastDecreaseTime >= Math.max(returnTripTime, interval)) {
+				budget *= Constants.SNAPSHOT_BUDGET_DECREASE;
+				lastDecreaseTime = time;
+				
+				// The losses so far are answered by this cut, only new ones count towards the next.
+				lossRate = 0f;
+			}
+			
+			budget = Math.max(minRate * averageSize, Math.min(maxRate * averageSize, budget));
+			rate = budget >= maxRate * averageSize ? maxRate : budget / averageSize;
+		}
+		
+		credit = Math.min(credit + rate * deltaTime, 1f);
+		return credit >= SNAPSHOT_CREDIT;
+	}
+	
+	/**
+	 * Has to be called after a snapshot was sent, with increasing sequences.
+	 *
+	 * @param time Milliseconds.
+	 * @param length Bytes sent or batched, -1 if an unbatched send found the socket buffer full.
+	 */
+	public void sent(final int sequence,
+					 final long time,
+					 final int length) {
+		
+		credit -= SNAPSHOT_CREDIT;
+		
+		final int shift = lastSequence == -1 ? Long.SIZE : sequence - lastSequence;
+		sentMask = shift >= Long.SIZE ? 1L : (sentMask << shift) | 1L;
+		lastSequence = sequence;
+		lastTime = time;
+		
+		if(pendingSequence == -1) {
+			pendingSequence = sequence;
+			pendingTime = time;
+		}
+		
+		if(length == -1) {
+			dropped = true;
+		}
+		else if(length > 0) {
+			if(averageSize == 0) {
+				averageSize = length;
+				budget = rate * averageSize;
+			}
+			else {
+				averageSize += (length - averageSize) * SIZE_WEIGHT;
+				
+				// A link that keeps up gets every snapshot whatever its size, the budget only holds once it was cut.
+				if(rate >= maxRate) {
+					budget = maxRate * averageSize;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Snapshots per second.
+	 */
+	public float rate() {
+		return rate;
+	}
+	
+	/**
+	 * Bytes per second.
+	 */
+	public float budget() {
+		return budget;
+	}
+	
+}
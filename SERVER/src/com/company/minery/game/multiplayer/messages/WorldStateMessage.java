@@ -1,6 +1,64 @@
 package com.company.minery.game.multiplayer.messages;
 
 public final class WorldStateMessage extends BaseMessage {
-	public PlayerMessage[] players;
-	public SpearMessage[] spears;
+	
+	public static final int NO_BASELINE = -1;
+	
+	private static final PlayerMessage[] NO_PLAYERS = new PlayerMessage[0];
+	private static final SpearMessage[] NO_SPEARS = new SpearMessage[0];
+	private static final long[] NO_UIDS = new long[0];
+	
+	public int sequence;
+	
+	// Sequence of the snapshot this one is a delta against, or NO_BASELINE when it carries the full state.
+	public int baseline = NO_BASELINE;
+	
+	// Bit i is set when sequence - 1 - i was not sent to the receiving client on purpose, so it can tell those from lost ones.
+	// Set per recipient just before sending.
+	public int skippedMask;
+	
+	// The arrays are reused between ticks and may be longer than their counts.
+	public PlayerMessage[] players = NO_PLAYERS;
+	public SpearMessage[] spears = NO_SPEARS;
+	public int playerCount;
+	public int spearCount;
+	
+	// Objects of the baseline that no longer exist.
+	public long[] removedUids = NO_UIDS;
+	public int removedCount;
+	
+	/**
+	 * Sets the counts, growing the arrays if needed. Messages already in the arrays are kept for reuse.
+	 */
+	public void setCounts(final int playerCount,
+						  final int spearCount,
+						  final int removedCount) {
+		
+		if(players.length < playerCount) {
+			final PlayerMessage[] players = new PlayerMessage[playerCount];
+			System.arraycopy(this.players, 0, players, 0, this.players.length);
+			
+			for(int i = this.players.length; i < playerCount; i += 1) {
+				players[i] = new PlayerMessage();
+			}
+			this.players = players;
+		}
+		if(spears.length < spearCount) {
+			final SpearMessage[] spears = new SpearMessage[Math.max(spearCount, this.spears.length * 2)];
+			System.arraycopy(this.spears, 0, spears, 0, this.spears.length);
+			
+			for(int i = this.spears.length; i < spears.length; i += 1) {
+				spears[i] = new SpearMessage();
+			}
+			this.spears = spears;
+		}
+		if(removedUids.length < removedCount) {
+			removedUids = new long[Math.max(removedCount, removedUids.length * 2)];
+		}
+		
+		this.playerCount = playerCount;
+		this.spearCount = spearCount;
+		this.removedCount = removedCount;
+	}
+	
 }
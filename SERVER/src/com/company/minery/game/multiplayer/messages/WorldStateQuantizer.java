@@ -0,0 +1,132 @@
+package com.company.minery.game.multiplayer.messages;
+
+import com.company.minery.game.map.Map;
+
+/**
+ * Maps world state values to fixed point integers relative to the map. Positions are stored in fractions of a tile from the
+ * bottom left corner, velocities in fractions of a tile per second and rotations in fractions of a full turn. Both ends must be
+ * configured with the same unscaled map.
+ */
+public final class WorldStateQuantizer {
+	
+	public static final int POSITION_STEPS = 64; // Per tile
+	public static final int VELOCITY_STEPS = 32; // Per tile per second
+	public static final int MAX_VELOCITY = 64; // Tiles per second, in either direction
+	public static final int ROTATION_BITS = 12;
+	
+	private float tileWidth;
+	private float tileHeight;
+	
+	private int maxX;
+	private int maxY;
+	private int maxVelocity;
+	private int rotationSteps;
+	
+	private int xBits; /**/ public int xBits() { return xBits; }
+	private int yBits; /**/ public int yBits() { return yBits; }
+	private int velocityBits; /**/ public int velocityBits() { return velocityBits; }
+	
+	public void setMap(final Map map) {
+		setMap(map.tileWidth, map.tileHeight, map.mainLayer.tiles.width, map.mainLayer.tiles.height);
+	}
+	
+	public void setMap(final float tileWidth,
+					   final float tileHeight,
+					   final int widthInTiles,
+					   final int heightInTiles) {
+		
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		
+		maxX = widthInTiles * POSITION_STEPS;
+		maxY = heightInTiles * POSITION_STEPS;
+		maxVelocity = MAX_VELOCITY * VELOCITY_STEPS;
+		rotationSteps = 1 << ROTATION_BITS;
+		
+		xBits = bitsFor(maxX);
+		yBits = bitsFor(maxY);
+		velocityBits = bitsFor(maxVelocity * 2);
+	}
+	
+	public int quantizeX(final float x) {
+		return clamp(Math.round(x / tileWidth * POSITION_STEPS), 0, maxX);
+	}
+	
+	public float dequantizeX(final int x) {
+		return x * tileWidth / POSITION_STEPS;
+	}
+	
+	public int quantizeY(final float y) {
+		return clamp(Math.round(y / tileHeight * POSITION_STEPS), 0, maxY);
+	}
+	
+	public float dequantizeY(final int y) {
+		return y * tileHeight / POSITION_STEPS;
+	}
+	
+	public int quantizeVelocityX(final float velocityX) {
+		return clamp(Math.round(velocityX / tileWidth * VELOCITY_STEPS), -maxVelocity, maxVelocity) + maxVelocity;
+	}
+	
+	public float dequantizeVelocityX(final int velocityX) {
+		return (velocityX - maxVelocity) * tileWidth / VELOCITY_STEPS;
+	}
+	
+	public int quantizeVelocityY(final float velocityY) {
+		return clamp(Math.round(velocityY / tileHeight * VELOCITY_STEPS), -maxVelocity, maxVelocity) + maxVelocity;
+	}
+	
+	public float dequantizeVelocityY(final int velocityY) {
+		return (velocityY - maxVelocity) * tileHeight / VELOCITY_STEPS;
+	}
+	
+	public int quantizeRotation(final float rotation) {
+		float turns = (rotation / 360f) % 1f;
+		if(turns < 0f) {
+			turns += 1f;
+		}
+		
+		return Math.round(turns * rotationSteps) & (rotationSteps - 1);
+	}
+	
+	public float dequantizeRotation(final int rotation) {
+		return rotation * 360f / rotationSteps;
+	}
+	
+	// Rounding to representable values lets the sender compare snapshots in exactly the precision they are sent with.
+	
+	public float roundX(final float x) {
+		return dequantizeX(quantizeX(x));
+	}
+	
+	public float roundY(final float y) {
+		return dequantizeY(quantizeY(y));
+	}
+	
+	public float roundVelocityX(final float velocityX) {
+		return dequantizeVelocityX(quantizeVelocityX(velocityX));
+	}
+	
+	public float roundVelocityY(final float velocityY) {
+		return dequantizeVelocityY(quantizeVelocityY(velocityY));
+	}
+	
+	public float roundRotation(final float rotation) {
+		return dequantizeRotation(quantizeRotation(rotation));
+	}
+	
+	/**
+	 * Number of bits needed to store values from 0 to max.
+	 */
+	public static int bitsFor(final int max) {
+		return 32 - Integer.numberOfLeadingZeros(max);
+	}
+	
+	private static int clamp(final int value,
+							 final int min,
+							 final int max) {
+		
+		return value < min ? min : (value > max ? max : value);
+	}
+	
+}
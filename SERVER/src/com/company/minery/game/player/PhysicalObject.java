@@ -1,13 +1,23 @@
 package com.company.minery.game.player;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.company.minery.game.GameAssets;
 import com.company.minery.game.player.Player.MovementDirection;
 
 public abstract class PhysicalObject {
 	
-	private static long uidCounter = Long.MIN_VALUE;
+	// Spears are spawned from several game workers at once.
+	private static final AtomicLong uidCounter = new AtomicLong(Long.MIN_VALUE);
 	
 	public final long uid;
+	
+	// Small id unique within the object's game, sent to clients instead of the uid.
+	public int netId;
+	
+	// Position in its game's physicalObjects, -1 when not part of a game.
+	public int objectIndex = -1;
+	
 	public MovementDirection movementDirection = MovementDirection.Idle;
 	
 	public float x;
@@ -25,7 +35,7 @@ public abstract class PhysicalObject {
 	public float animationTimer;
 	
 	public PhysicalObject() {
-		this.uid = uidCounter++;
+		this.uid = uidCounter.getAndIncrement();
 	}
 	
 	public PhysicalObject(final long uid) {
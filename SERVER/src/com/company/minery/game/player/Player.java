@@ -73,6 +73,15 @@ public final class Player extends PhysicalObject {
 	public long ownSpearUid;
 	public boolean ignoreOwnSpear;
 	
+	// Net id of the spear in ownSpearUid until it is removed from the game, -1 after.
+	public int ownSpearNetId = -1;
+	
+	// Position in its game's players, also in the game's bounds history.
+	public int playerIndex = -1;
+	
+	// Ticks other players are rewound by when this player's spears are checked against them, from its return trip time.
+	public int rewindTicks;
+	
 	public void onLeftPressed() {
 		if(!dead) {
 			movementDirection = MovementDirection.Left;
@@ -9,6 +9,12 @@ public final class Spear extends PhysicalObject {
 	public float lastRotation;
 	public boolean stuckSoundPlayed;
 	
+	// Position in its game's spears, -1 once picked up.
+	public int spearIndex = -1;
+	
+	// Player that threw it.
+	public Player owner;
+	
 	public Spear() {
 	}
 	
@@ -0,0 +1,57 @@
+package com.company.minery.utils;
+
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Packs values of arbitrary bit widths into the bytes of a Kryo {@link Output}, least significant bit first.
+ */
+public final class BitWriter {
+	
+	private Output output;
+	private long bits;
+	private int bitCount;
+	
+	public void begin(final Output output) {
+		this.output = output;
+		this.bits = 0;
+		this.bitCount = 0;
+	}
+	
+	/**
+	 * @param count Number of low bits of value to write, 0 to 32.
+	 */
+	public void write(final int value,
+					  final int count) {
+		
+		bits |= (value & mask(count)) << bitCount;
+		bitCount += count;
+		
+		while(bitCount >= 8) {
+			output.writeByte((int) bits);
+			bits >>>= 8;
+			bitCount -= 8;
+		}
+	}
+	
+	public void writeBoolean(final boolean value) {
+		write(value ? 1 : 0, 1);
+	}
+	
+	/**
+	 * Writes the remaining bits padded to a whole byte.
+	 */
+	public void end() {
+		if(bitCount > 0) {
+			output.writeByte((int) bits);
+		}
+		
+		output = null;
+		bits = 0;
+		bitCount = 0;
+	}
+	
+	static long mask(final int count) {
+		return count == 0 ? 0L : -1L >>> (64 - count);
+	}
+	
+}
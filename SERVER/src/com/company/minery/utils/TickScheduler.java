@@ -0,0 +1,177 @@
+package com.company.minery.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link Tick} at a fixed timestep. Elapsed time is consumed in whole steps, a bounded number of steps is replayed to
+ * catch up and any backlog beyond that is dropped. Between ticks the thread parks and then yields for the last stretch.
+ */
+public final class TickScheduler {
+	
+	public static interface Tick {
+		public void tick(final float deltaTime);
+	}
+	
+	private final long stepNanos;
+	private final float stepTime;
+	private final int maxCatchUpTicks;
+	private final long spinNanos;
+	private final long reportNanos;
+	
+	private volatile boolean running;
+	private volatile Thread thread;
+	
+	// Stats of the current report window, only touched by the tick thread.
+	private long windowTicks;
+	private long windowOverruns;
+	private long windowDroppedTicks;
+	private long windowTickNanos;
+	private long windowMaxTickNanos;
+	
+	private volatile long totalTicks; /**/ public long totalTicks() { return totalTicks; }
+	private volatile long totalOverruns; /**/ public long totalOverruns() { return totalOverruns; }
+	private volatile long totalDroppedTicks; /**/ public long totalDroppedTicks() { return totalDroppedTicks; }
+	private volatile long lastTickNanos; /**/ public long lastTickNanos() { return lastTickNanos; }
+	
+	/**
+	 * @param tickRate Ticks per second.
+	 * @param maxCatchUpTicks How many ticks may run back to back to catch up before the remaining backlog is dropped.
+	 * @param spinNanos How long before a deadline the thread stops parking and starts yielding.
+	 * @param reportTime Seconds between printed stat summaries, zero or less disables them.
+	 */
+	public TickScheduler(final int tickRate,
+						 final int maxCatchUpTicks,
+						 final long spinNanos,
+						 final float reportTime) {
+		
+		if(tickRate <= 0) {
+			throw new IllegalArgumentException("tickRate must be positive");
+		}
+		if(maxCatchUpTicks <= 0) {
+			throw new IllegalArgumentException("maxCatchUpTicks must be positive");
+		}
+		
+		this.stepNanos = 1000000000L / tickRate;
+		this.stepTime = 1f / tickRate;
+		this.maxCatchUpTicks = maxCatchUpTicks;
+		this.spinNanos = spinNanos;
+		this.reportNanos = reportTime > 0f ? (long)(reportTime * 1000000000L) : 0L;
+	}
+	
+	public float stepTime() {
+		return stepTime;
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * Blocks the calling thread and runs the tick until {@link #stop()} is called.
+	 */
+	public void run(final Tick tick) {
+		running = true;
+		thread = Thread.currentThread();
+		
+		final long stepNanos = this.stepNanos;
+		
+		long previousTime = System.nanoTime();
+		long accumulator = stepNanos;
+		long nextReportTime = previousTime + reportNanos;
+		
+		while(running) {
+			final long currentTime = System.nanoTime();
+			accumulator += currentTime - previousTime;
+			previousTime = currentTime;
+			
+			int ticks = 0;
+			while(accumulator >= stepNanos && ticks < maxCatchUpTicks && running) {
+				final long tickStart = System.nanoTime();
+				tick.tick(stepTime);
+				recordTick(System.nanoTime() - tickStart);
+				
+				accumulator -= stepNanos;
+				ticks += 1;
+			}
+			
+			if(accumulator >= stepNanos) {
+				// Too far behind to catch up, drop the backlog instead of spiraling.
+				final long dropped = accumulator / stepNanos;
+				windowDroppedTicks += dropped;
+				totalDroppedTicks += dropped;
+				accumulator -= dropped * stepNanos;
+			}
+			
+			if(reportNanos > 0 && previousTime >= nextReportTime) {
+				report();
+				nextReportTime = previousTime + reportNanos;
+			}
+			
+			waitUntil(previousTime + stepNanos - accumulator);
+		}
+		
+		thread = null;
+	}
+	
+	public void stop() {
+		running = false;
+		
+		final Thread thread = this.thread;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	private void waitUntil(final long deadline) {
+		final long spinNanos = this.spinNanos;
+		
+		while(running) {
+			final long remaining = deadline - System.nanoTime();
+			
+			if(remaining <= 0) {
+				break;
+			}
+			
+			if(remaining > spinNanos) {
+				LockSupport.parkNanos(remaining - spinNanos);
+			}
+			else {
+				Thread.yield();
+			}
+		}
+	}
+	
+	private void recordTick(final long tickNanos) {
+		windowTicks += 1;
+		windowTickNanos += tickNanos;
+		
+		if(tickNanos > windowMaxTickNanos) {
+			windowMaxTickNanos = tickNanos;
+		}
+		
+		if(tickNanos > stepNanos) {
+			windowOverruns += 1;
+			totalOverruns += 1;
+		}
+		
+		totalTicks += 1;
+		lastTickNanos = tickNanos;
+	}
+	
+	private void report() {
+		final long averageMicros = windowTicks > 0 ? windowTickNanos / windowTicks / 1000 : 0;
+		
+		System.out.println("Ticks: " + windowTicks +
+						   ", avg: " + averageMicros + "us" +
+						   ", max: " + windowMaxTickNanos / 1000 + "us" +
+						   ", overruns: " + windowOverruns +
+						   ", dropped: " + windowDroppedTicks);
+		
+		windowTicks = 0;
+		windowOverruns = 0;
+		windowDroppedTicks = 0;
+		windowTickNanos = 0;
+		windowMaxTickNanos = 0;
+	}
+	
+}
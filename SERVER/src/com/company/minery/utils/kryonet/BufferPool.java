@@ -0,0 +1,65 @@
+package com.company.minery.utils.kryonet;
+
+import java.nio.ByteBuffer;
+
+/** Hands out buffers of a single size, sliced from larger slabs so each buffer doesn't cost a separate allocation. Freed buffers
+ * are handed out again, slabs are never released. This class is thread safe. */
+class BufferPool {
+	static private final int slabSize = 1024 * 1024;
+
+	final int bufferSize;
+	final boolean direct;
+	private final int buffersPerSlab;
+	// A stack under a lock instead of a concurrent queue, so handing buffers back and forth doesn't allocate.
+	private ByteBuffer[] freeBuffers = new ByteBuffer[0];
+	private int freeCount;
+	private int slabCount;
+
+	/** Allocates direct buffers in slabs of about 1 MB. */
+	public BufferPool (int bufferSize) {
+		this(bufferSize, Math.max(1, slabSize / bufferSize), true);
+	}
+
+	/** @param direct If true the slabs are allocated off heap. */
+	public BufferPool (int bufferSize, int buffersPerSlab, boolean direct) {
+		if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be > 0: " + bufferSize);
+		if (buffersPerSlab <= 0) throw new IllegalArgumentException("buffersPerSlab must be > 0: " + buffersPerSlab);
+		this.bufferSize = bufferSize;
+		this.buffersPerSlab = buffersPerSlab;
+		this.direct = direct;
+	}
+
+	/** Returns a cleared buffer of {@link #bufferSize} bytes. */
+	public synchronized ByteBuffer obtain () {
+		if (freeCount == 0) allocateSlab();
+		ByteBuffer buffer = freeBuffers[--freeCount];
+		freeBuffers[freeCount] = null;
+		buffer.clear();
+		return buffer;
+	}
+
+	/** The buffer must have been obtained from this pool and may not be used by the caller afterward. */
+	public synchronized void free (ByteBuffer buffer) {
+		freeBuffers[freeCount++] = buffer;
+	}
+
+	/** Returns the number of bytes allocated by this pool so far. */
+	public synchronized long getAllocatedBytes () {
+		return (long)slabCount * buffersPerSlab * bufferSize;
+	}
+
+	private void allocateSlab () {
+		ByteBuffer slab = direct ? ByteBuffer.allocateDirect(buffersPerSlab * bufferSize) : ByteBuffer.allocate(buffersPerSlab
+			* bufferSize);
+		slabCount++;
+		// Every buffer ever handed out fits, so free never has to grow the stack.
+		ByteBuffer[] newFreeBuffers = new ByteBuffer[slabCount * buffersPerSlab];
+		System.arraycopy(freeBuffers, 0, newFreeBuffers, 0, freeCount);
+		freeBuffers = newFreeBuffers;
+		for (int i = 0; i < buffersPerSlab; i++) {
+			slab.limit((i + 1) * bufferSize);
+			slab.position(i * bufferSize);
+			freeBuffers[freeCount++] = slab.slice();
+		}
+	}
+}
@@ -20,6 +20,7 @@
 package com.company.minery.utils.kryonet;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.company.minery.utils.kryonet.FrameworkMessage.DiscoverHost;
 import com.company.minery.utils.kryonet.FrameworkMessage.KeepAlive;
@@ -30,45 +31,75 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.ByteBufferOutput;
 
+/** Serializes with one {@link Kryo} per thread, so any number of threads can read and write at the same time without sharing
+ * a lock. Every thread's Kryo gets the same registrations, applied in the order they were added with
+ * {@link #addRegistrar(Registrar)}. Since registrars run once per thread, serializers they create are never shared between
+ * threads and may keep state. */
 public class KryoSerialization implements Serialization {
-	private final Kryo kryo;
-	private final ByteBufferInput input;
-	private final ByteBufferOutput output;
+	/** Registers classes with a Kryo. Must register the same classes in the same order every time it is called. */
+	static public interface Registrar {
+		public void register (Kryo kryo);
+	}
 
-	public KryoSerialization () {
-		this(new Kryo());
-		kryo.setReferences(false);
-		kryo.setRegistrationRequired(true);
+	private final CopyOnWriteArrayList<Registrar> registrars = new CopyOnWriteArrayList<Registrar>();
+
+	private final ThreadLocal<ThreadState> threadState = new ThreadLocal<ThreadState>() {
+		protected ThreadState initialValue () {
+			return new ThreadState(newKryo());
+		}
+	};
+
+	/** Adds a registrar and applies it to the Kryo of every thread, each thread catches up before its next read or write. All
+	 * registrars should be added before the first connection is made. */
+	public void addRegistrar (Registrar registrar) {
+		registrars.add(registrar);
 	}
 
-	public KryoSerialization (Kryo kryo) {
-		this.kryo = kryo;
+	/** Creates a Kryo with the framework messages registered, called once for every thread that serializes. Subclasses may
+	 * override this to configure Kryo differently. */
+	protected Kryo newKryo () {
+		Kryo kryo = new Kryo();
+		kryo.setReferences(false);
+		kryo.setRegistrationRequired(true);
 
 		kryo.register(RegisterTCP.class);
 		kryo.register(RegisterUDP.class);
 		kryo.register(KeepAlive.class);
 		kryo.register(DiscoverHost.class);
 		kryo.register(Ping.class);
-
-		input = new ByteBufferInput();
-		output = new ByteBufferOutput();
+		return kryo;
 	}
 
+	/** Returns the calling thread's Kryo. Registering classes with it only affects that thread, use
+	 * {@link #addRegistrar(Registrar)} instead. */
 	public Kryo getKryo () {
-		return kryo;
+		return state().kryo;
 	}
 
-	public synchronized void write (Connection connection, ByteBuffer buffer, Object object) {
+	public void write (Connection connection, ByteBuffer buffer, Object object) {
+		ThreadState state = state();
+		ByteBufferOutput output = state.output;
 		output.setBuffer(buffer);
-		kryo.getContext().put("connection", connection);
-		kryo.writeClassAndObject(output, object);
+		state.kryo.getContext().put("connection", connection);
+		state.kryo.writeClassAndObject(output, object);
 		output.flush();
 	}
 
-	public synchronized Object read (Connection connection, ByteBuffer buffer) {
+	public Object read (Connection connection, ByteBuffer buffer) {
+		ThreadState state = state();
+		ByteBufferInput input = state.input;
 		input.setBuffer(buffer);
-		kryo.getContext().put("connection", connection);
-		return kryo.readClassAndObject(input);
+		state.kryo.getContext().put("connection", connection);
+		return state.kryo.readClassAndObject(input);
+	}
+
+	private ThreadState state () {
+		ThreadState state = threadState.get();
+		if (state.registrarCount < registrars.size()) {
+			for (int n = registrars.size(); state.registrarCount < n; state.registrarCount++)
+				registrars.get(state.registrarCount).register(state.kryo);
+		}
+		return state;
 	}
 
 	public void writeLength (ByteBuffer buffer, int length) {
@@ -82,4 +113,15 @@ public class KryoSerialization implements Serialization {
 	public int getLengthLength () {
 		return 4;
 	}
+
+	static private class ThreadState {
+		final Kryo kryo;
+		final ByteBufferInput input = new ByteBufferInput();
+		final ByteBufferOutput output = new ByteBufferOutput();
+		int registrarCount;
+
+		ThreadState (Kryo kryo) {
+			this.kryo = kryo;
+		}
+	}
 }
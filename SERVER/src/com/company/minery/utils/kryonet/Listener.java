@@ -56,6 +56,16 @@ public class Listener {
 	public void idle (Connection connection) {
 	}
 
+	/** Called when more bytes wait for the TCP socket than the {@link Connection#setTcpWatermarks(int, int) high watermark}, for
+	 * example because the remote end reads too slowly. Called with the connection's write lock held, so this should not block. */
+	public void congested (Connection connection) {
+	}
+
+	/** Called when the bytes waiting for the TCP socket of a congested connection drop to the low watermark. Called with the
+	 * connection's write lock held, so this should not block. */
+	public void drained (Connection connection) {
+	}
+
 	/** Uses reflection to called "received(Connection, XXX)" on the listener, where XXX is the received object type. Note this
 	 * class uses a HashMap lookup and (cached) reflection, so is not as efficient as writing a series of "instanceof" statements. */
 	static public class ReflectionListener extends Listener {
@@ -133,6 +143,22 @@ public class Listener {
 			});
 		}
 
+		public void congested (final Connection connection) {
+			queue(new Runnable() {
+				public void run () {
+					listener.congested(connection);
+				}
+			});
+		}
+
+		public void drained (final Connection connection) {
+			queue(new Runnable() {
+				public void run () {
+					listener.drained(connection);
+				}
+			});
+		}
+
 		abstract protected void queue (Runnable runnable);
 	}
 
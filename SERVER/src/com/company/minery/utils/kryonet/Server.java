@@ -32,6 +32,7 @@ import static com.esotericsoftware.minlog.Log.warn;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -39,8 +40,10 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.company.minery.utils.kryonet.FrameworkMessage.DiscoverHost;
 import com.company.minery.utils.kryonet.FrameworkMessage.RegisterTCP;
@@ -57,8 +60,23 @@ public class Server implements EndPoint {
 	private int emptySelects;
 	private ServerSocketChannel serverChannel;
 	private UdpConnection udp;
-	private Connection[] connections = {};
+	private volatile Connection[] connections = {};
 	private IntMap<Connection> pendingConnections = new IntMap();
+	private final IntMap<Connection> connectionsByID = new IntMap<Connection>();
+	private final HashMap<InetSocketAddress, Connection> connectionsByUdpAddress = new HashMap<InetSocketAddress, Connection>();
+	private final Object connectionsLock = new Object();
+	private boolean udpConnectionIDPrefix;
+	private int udpBatchSize;
+	private BufferPool chunkPool, objectBufferPool;
+	// Closed connections, their buffers are freed by the update thread when it no longer reads them. Unused with I/O threads.
+	private final ConcurrentLinkedQueue<Connection> closedConnections = new ConcurrentLinkedQueue<Connection>();
+	private final ThreadLocal<ByteBuffer> broadcastBuffer = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue () {
+			return ByteBuffer.allocateDirect(objectBufferSize);
+		}
+	};
+	private final IoThread[] ioThreads;
+	private int nextIoThread;
 	Listener[] listeners = {};
 	private Object listenerLock = new Object();
 	private int nextConnectionID = 1;
@@ -92,6 +110,18 @@ public class Server implements EndPoint {
 			for (int i = 0, n = listeners.length; i < n; i++)
 				listeners[i].idle(connection);
 		}
+
+		public void congested (Connection connection) {
+			Listener[] listeners = Server.this.listeners;
+			for (int i = 0, n = listeners.length; i < n; i++)
+				listeners[i].congested(connection);
+		}
+
+		public void drained (Connection connection) {
+			Listener[] listeners = Server.this.listeners;
+			for (int i = 0, n = listeners.length; i < n; i++)
+				listeners[i].drained(connection);
+		}
 	};
 
 	/** Creates a Server with a write buffer size of 16384 and an object buffer size of 2048. */
@@ -99,11 +129,12 @@ public class Server implements EndPoint {
 		this(16384, 2048);
 	}
 
-	/** @param writeBufferSize One buffer of this size is allocated for each connected client. Objects are serialized to the write
-	 *           buffer where the bytes are queued until they can be written to the TCP socket.
+	/** @param writeBufferSize The most bytes queued for each connected client until they can be written to the TCP socket. Queued
+	 *           bytes are kept in chunks shared by all connections, so memory is only used for what is actually queued.
 	 *           <p>
 	 *           Normally the socket is writable and the bytes are written immediately. If the socket cannot be written to and
-	 *           enough serialized objects are queued to overflow the buffer, then the connection will be closed.
+	 *           enough serialized objects are queued to overflow the buffer, then the connection will be closed. Listeners are told
+	 *           well before that, see {@link Connection#setTcpWatermarks(int, int)}.
 	 *           <p>
 	 *           The write buffer should be sized at least as large as the largest object that will be sent, plus some head room to
 	 *           allow for some serialized objects to be queued in case the buffer is temporarily not writable. The amount of head
@@ -118,6 +149,14 @@ public class Server implements EndPoint {
 	}
 
 	public Server (int writeBufferSize, int objectBufferSize, Serialization serialization) {
+		this(writeBufferSize, objectBufferSize, serialization, 0);
+	}
+
+	/** @param ioThreads If greater than zero, TCP connections are spread over this many threads that each own a selector and the
+	 *           connections assigned to them. The update thread then only accepts connections and reads UDP. The I/O threads
+	 *           run while {@link #run()} does, so this requires the server to be started with {@link #start()} or {@link #run()}.
+	 *           Listeners are notified from the I/O threads as well as the update thread. Zero keeps all I/O on the update thread. */
+	public Server (int writeBufferSize, int objectBufferSize, Serialization serialization, int ioThreads) {
 		this.writeBufferSize = writeBufferSize;
 		this.objectBufferSize = objectBufferSize;
 
@@ -127,6 +166,10 @@ public class Server implements EndPoint {
 
 		try {
 			selector = Selector.open();
+			chunkPool = newChunkPool(false);
+			this.ioThreads = new IoThread[Math.max(0, ioThreads)];
+			for (int i = 0; i < this.ioThreads.length; i++)
+				this.ioThreads[i] = new IoThread(i);
 		} catch (IOException ex) {
 			throw new RuntimeException("Error opening selector.", ex);
 		}
@@ -136,6 +179,69 @@ public class Server implements EndPoint {
 		discoveryHandler = newDiscoveryHandler;
 	}
 
+	/** If true, every datagram received is expected to start with the sender's connection ID, see
+	 * {@link Client#setUdpConnectionIDPrefix(boolean)}. The ID is checked against the source address instead of looking the
+	 * address up. Clients and server have to agree on this. Takes effect on the next {@link #bind(int, int) bind}. */
+	public void setUdpConnectionIDPrefix (boolean udpConnectionIDPrefix) {
+		this.udpConnectionIDPrefix = udpConnectionIDPrefix;
+	}
+
+	/** If true, connections accepted afterward use direct TCP buffers from pools shared by all connections of this server, instead
+	 * of heap buffers. That saves the JDK copying every socket read and write through a temporary direct buffer. The buffers are
+	 * allocated off heap in slabs that are kept for reuse after connections close. */
+	public void setDirectBuffers (boolean directBuffers) {
+		if (directBuffers == chunkPool.direct) return;
+		chunkPool = newChunkPool(directBuffers);
+		objectBufferPool = directBuffers ? new BufferPool(objectBufferSize) : null;
+	}
+
+	private BufferPool newChunkPool (boolean direct) {
+		int chunkSize = TcpConnection.chunkSize(serialization, objectBufferSize);
+		return new BufferPool(chunkSize, Math.max(1, 1024 * 1024 / chunkSize), direct);
+	}
+
+	/** Returns the off heap bytes allocated for TCP buffers, zero unless {@link #setDirectBuffers(boolean) direct buffers} are
+	 * used. */
+	public long getDirectBufferBytes () {
+		BufferPool chunkPool = this.chunkPool, objectBufferPool = this.objectBufferPool;
+		if (objectBufferPool == null) return 0;
+		return chunkPool.getAllocatedBytes() + objectBufferPool.getAllocatedBytes();
+	}
+
+	/** Returns the bytes allocated for the chunks that bytes waiting for TCP sockets are queued in. Chunks are shared by all
+	 * connections and only taken while a connection has bytes queued, so this grows with the most bytes ever queued at once
+	 * rather than with the number of connections. */
+	public long getWriteQueueBytes () {
+		return chunkPool.getAllocatedBytes();
+	}
+
+	/** If greater than zero, objects sent over UDP to a connection are batched until {@link #flushUDP()} is called, or until the
+	 * next one doesn't fit, and then go out together in one datagram. Each object is preceded by its length as a variable length
+	 * int. An object larger than the batch size is sent in a datagram of its own. Clients have to be set up for this with
+	 * {@link Client#setUdpBatching(boolean)}. Takes effect on the next {@link #bind(int, int) bind}.
+	 * @param batchSize The most bytes batched into one datagram. Should stay below the path MTU, eg 1200. Zero sends every
+	 *           object right away. */
+	public void setUdpBatching (int batchSize) {
+		if (batchSize < 0) throw new IllegalArgumentException("batchSize must be >= 0: " + batchSize);
+		udpBatchSize = batchSize;
+	}
+
+	/** Sends the objects batched for every connection since the last flush, see {@link #setUdpBatching(int)}. Typically called
+	 * once per game tick after all of its objects were sent. */
+	public void flushUDP () {
+		UdpConnection udp = this.udp;
+		if (udp == null || udpBatchSize == 0) return;
+		Connection[] connections = this.connections;
+		for (int i = 0, n = connections.length; i < n; i++)
+			connections[i].flushUDP();
+	}
+
+	/** Returns the number of UDP datagrams sent since the server was bound, not counting host discovery replies. */
+	public long getUdpDatagramsSent () {
+		UdpConnection udp = this.udp;
+		return udp != null ? udp.getDatagramsSent() : 0;
+	}
+
 	public Serialization getSerialization () {
 		return serialization;
 	}
@@ -170,6 +276,8 @@ public class Server implements EndPoint {
 
 				if (udpPort != null) {
 					udp = new UdpConnection(serialization, objectBufferSize);
+					udp.prefixReads = udpConnectionIDPrefix;
+					udp.setBatchSize(udpBatchSize);
 					udp.bind(selector, udpPort);
 					if (DEBUG) debug("kryonet", "Accepting connections on port: " + udpPort + "/UDP");
 				}
@@ -213,7 +321,7 @@ public class Server implements EndPoint {
 				UdpConnection udp = this.udp;
 				outer:
 				for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
-					keepAlive();
+					if (ioThreads.length == 0) keepAlive();
 					SelectionKey selectionKey = iter.next();
 					iter.remove();
 					Connection fromConnection = (Connection)selectionKey.attachment();
@@ -221,49 +329,7 @@ public class Server implements EndPoint {
 						int ops = selectionKey.readyOps();
 
 						if (fromConnection != null) { // Must be a TCP read or write operation.
-							if (udp != null && fromConnection.udpRemoteAddress == null) {
-								fromConnection.close();
-								continue;
-							}
-							if ((ops & SelectionKey.OP_READ) == SelectionKey.OP_READ) {
-								try {
-									while (true) {
-										Object object = fromConnection.tcp.readObject(fromConnection);
-										if (object == null) break;
-										if (DEBUG) {
-											String objectString = object == null ? "null" : object.getClass().getSimpleName();
-											if (!(object instanceof FrameworkMessage)) {
-												debug("kryonet", fromConnection + " received TCP: " + objectString);
-											} else if (TRACE) {
-												trace("kryonet", fromConnection + " received TCP: " + objectString);
-											}
-										}
-										fromConnection.notifyReceived(object);
-									}
-								} catch (IOException ex) {
-									if (TRACE) {
-										trace("kryonet", "Unable to read TCP from: " + fromConnection, ex);
-									} else if (DEBUG) {
-										debug("kryonet", fromConnection + " update: " + ex.getMessage());
-									}
-									fromConnection.close();
-								} catch (KryoNetException ex) {
-									if (ERROR) error("kryonet", "Error reading TCP from connection: " + fromConnection, ex);
-									fromConnection.close();
-								}
-							}
-							if ((ops & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-								try {
-									fromConnection.tcp.writeOperation();
-								} catch (IOException ex) {
-									if (TRACE) {
-										trace("kryonet", "Unable to write TCP to connection: " + fromConnection, ex);
-									} else if (DEBUG) {
-										debug("kryonet", fromConnection + " update: " + ex.getMessage());
-									}
-									fromConnection.close();
-								}
-							}
+							tcpOperation(fromConnection, ops, udp);
 							continue;
 						}
 
@@ -293,12 +359,16 @@ public class Server implements EndPoint {
 						}
 						if (fromAddress == null) continue;
 
-						Connection[] connections = this.connections;
-						for (int i = 0, n = connections.length; i < n; i++) {
-							Connection connection = connections[i];
-							if (fromAddress.equals(connection.udpRemoteAddress)) {
-								fromConnection = connection;
-								break;
+						if (udp.prefixReads) {
+							int connectionID = udp.readConnectionID();
+							synchronized (connectionsLock) {
+								fromConnection = connectionsByID.get(connectionID);
+							}
+							// Only trust the ID from the address the connection registered, anything else is unregistered.
+							if (fromConnection != null && !fromAddress.equals(fromConnection.udpRemoteAddress)) fromConnection = null;
+						} else {
+							synchronized (connectionsLock) {
+								fromConnection = connectionsByUdpAddress.get(fromAddress);
 							}
 						}
 
@@ -319,10 +389,16 @@ public class Server implements EndPoint {
 							if (object instanceof RegisterUDP) {
 								// Store the fromAddress on the connection and reply over TCP with a RegisterUDP to indicate success.
 								int fromConnectionID = ((RegisterUDP)object).connectionID;
-								Connection connection = pendingConnections.remove(fromConnectionID);
+								Connection connection;
+								synchronized (connectionsLock) {
+									connection = pendingConnections.remove(fromConnectionID);
+								}
 								if (connection != null) {
 									if (connection.udpRemoteAddress != null) continue outer;
 									connection.udpRemoteAddress = fromAddress;
+									synchronized (connectionsLock) {
+										connectionsByUdpAddress.put(fromAddress, connection);
+									}
 									addConnection(connection);
 									connection.sendTCP(new RegisterUDP());
 									if (DEBUG)
@@ -367,17 +443,71 @@ public class Server implements EndPoint {
 				}
 			}
 		}
+		// With I/O threads the connections are checked by the thread that owns them.
+		if (ioThreads.length > 0) return;
+		Connection closedConnection;
+		while ((closedConnection = closedConnections.poll()) != null)
+			closedConnection.tcp.free();
 		long time = System.currentTimeMillis();
 		Connection[] connections = this.connections;
-		for (int i = 0, n = connections.length; i < n; i++) {
-			Connection connection = connections[i];
-			if (connection.tcp.isTimedOut(time)) {
-				if (DEBUG) debug("kryonet", connection + " timed out.");
-				connection.close();
-			} else {
-				if (connection.tcp.needsKeepAlive(time)) connection.sendTCP(FrameworkMessage.keepAlive);
+		for (int i = 0, n = connections.length; i < n; i++)
+			checkConnection(connections[i], time);
+	}
+
+	void checkConnection (Connection connection, long time) {
+		if (connection.tcp.isTimedOut(time)) {
+			if (DEBUG) debug("kryonet", connection + " timed out.");
+			connection.close();
+		} else {
+			if (connection.tcp.needsKeepAlive(time)) connection.sendTCP(FrameworkMessage.keepAlive);
+		}
+		if (connection.isIdle()) connection.notifyIdle();
+	}
+
+	/** Reads or writes TCP data for a connection whose key was selected, on whichever thread owns the connection's selector. */
+	void tcpOperation (Connection fromConnection, int ops, UdpConnection udp) {
+		if (udp != null && fromConnection.udpRemoteAddress == null) {
+			fromConnection.close();
+			return;
+		}
+		if ((ops & SelectionKey.OP_READ) == SelectionKey.OP_READ) {
+			try {
+				while (true) {
+					Object object = fromConnection.tcp.readObject(fromConnection);
+					if (object == null) break;
+					if (DEBUG) {
+						String objectString = object == null ? "null" : object.getClass().getSimpleName();
+						if (!(object instanceof FrameworkMessage)) {
+							debug("kryonet", fromConnection + " received TCP: " + objectString);
+						} else if (TRACE) {
+							trace("kryonet", fromConnection + " received TCP: " + objectString);
+						}
+					}
+					fromConnection.notifyReceived(object);
+				}
+			} catch (IOException ex) {
+				if (TRACE) {
+					trace("kryonet", "Unable to read TCP from: " + fromConnection, ex);
+				} else if (DEBUG) {
+					debug("kryonet", fromConnection + " update: " + ex.getMessage());
+				}
+				fromConnection.close();
+			} catch (KryoNetException ex) {
+				if (ERROR) error("kryonet", "Error reading TCP from connection: " + fromConnection, ex);
+				fromConnection.close();
+			}
+		}
+		if ((ops & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+			try {
+				fromConnection.tcp.writeOperation(fromConnection);
+			} catch (IOException ex) {
+				if (TRACE) {
+					trace("kryonet", "Unable to write TCP to connection: " + fromConnection, ex);
+				} else if (DEBUG) {
+					debug("kryonet", fromConnection + " update: " + ex.getMessage());
+				}
+				fromConnection.close();
 			}
-			if (connection.isIdle()) connection.notifyIdle();
 		}
 	}
 
@@ -393,6 +523,8 @@ public class Server implements EndPoint {
 	public void run () {
 		if (TRACE) trace("kryonet", "Server thread started.");
 		shutdown = false;
+		for (int i = 0, n = ioThreads.length; i < n; i++)
+			ioThreads[i].start();
 		while (!shutdown) {
 			try {
 				update(250);
@@ -401,6 +533,8 @@ public class Server implements EndPoint {
 				close();
 			}
 		}
+		for (int i = 0, n = ioThreads.length; i < n; i++)
+			ioThreads[i].join();
 		if (TRACE) trace("kryonet", "Server thread stopped.");
 	}
 
@@ -417,32 +551,49 @@ public class Server implements EndPoint {
 
 	private void acceptOperation (SocketChannel socketChannel) {
 		Connection connection = newConnection();
-		connection.initialize(serialization, writeBufferSize, objectBufferSize);
+		connection.initialize(serialization, writeBufferSize, objectBufferSize, chunkPool, objectBufferPool);
 		connection.endPoint = this;
 		UdpConnection udp = this.udp;
 		if (udp != null) connection.udp = udp;
+
+		int id = nextConnectionID++;
+		if (nextConnectionID == -1) nextConnectionID = 1;
+		connection.id = id;
+
+		if (ioThreads.length > 0) {
+			// Round robin, the I/O thread registers the channel with its own selector.
+			ioThreads[nextIoThread].register(connection, socketChannel);
+			nextIoThread = (nextIoThread + 1) % ioThreads.length;
+		} else
+			registerOperation(selector, connection, socketChannel);
+	}
+
+	void registerOperation (Selector selector, Connection connection, SocketChannel socketChannel) {
+		UdpConnection udp = connection.udp;
 		try {
 			SelectionKey selectionKey = connection.tcp.accept(selector, socketChannel);
 			selectionKey.attach(connection);
 
-			int id = nextConnectionID++;
-			if (nextConnectionID == -1) nextConnectionID = 1;
-			connection.id = id;
 			connection.setConnected(true);
 			connection.addListener(dispatchListener);
 
 			if (udp == null)
 				addConnection(connection);
-			else
-				pendingConnections.put(id, connection);
+			else {
+				synchronized (connectionsLock) {
+					pendingConnections.put(connection.id, connection);
+				}
+			}
 
 			RegisterTCP registerConnection = new RegisterTCP();
-			registerConnection.connectionID = id;
+			registerConnection.connectionID = connection.id;
 			connection.sendTCP(registerConnection);
 
 			if (udp == null) connection.notifyConnected();
 		} catch (IOException ex) {
 			connection.close();
+			// Called by the thread that would read the connection, nothing else uses its buffers yet.
+			connection.tcp.free();
 			if (DEBUG) debug("kryonet", "Unable to accept TCP connection.", ex);
 		}
 	}
@@ -454,73 +605,132 @@ public class Server implements EndPoint {
 	}
 
 	private void addConnection (Connection connection) {
-		Connection[] newConnections = new Connection[connections.length + 1];
-		newConnections[0] = connection;
-		System.arraycopy(connections, 0, newConnections, 1, connections.length);
-		connections = newConnections;
+		synchronized (connectionsLock) {
+			Connection[] connections = this.connections;
+			Connection[] newConnections = new Connection[connections.length + 1];
+			newConnections[0] = connection;
+			System.arraycopy(connections, 0, newConnections, 1, connections.length);
+			this.connections = newConnections;
+			connectionsByID.put(connection.id, connection);
+		}
 	}
 
 	void removeConnection (Connection connection) {
-		ArrayList<Connection> temp = new ArrayList(Arrays.asList(connections));
-		temp.remove(connection);
-		connections = temp.toArray(new Connection[temp.size()]);
+		synchronized (connectionsLock) {
+			ArrayList<Connection> temp = new ArrayList(Arrays.asList(connections));
+			temp.remove(connection);
+			connections = temp.toArray(new Connection[temp.size()]);
+
+			pendingConnections.remove(connection.id);
+			if (connectionsByID.get(connection.id) == connection) connectionsByID.remove(connection.id);
+			InetSocketAddress udpRemoteAddress = connection.udpRemoteAddress;
+			if (udpRemoteAddress != null && connectionsByUdpAddress.get(udpRemoteAddress) == connection)
+				connectionsByUdpAddress.remove(udpRemoteAddress);
+		}
+		UdpConnection udp = this.udp;
+		if (udp != null) udp.discardBatch(connection);
+		// The update thread may be reading this connection right now, it frees the buffers after its current pass.
+		if (ioThreads.length == 0) closedConnections.add(connection);
+	}
 
-		pendingConnections.remove(connection.id);
+	private Connection getConnection (int connectionID) {
+		synchronized (connectionsLock) {
+			return connectionsByID.get(connectionID);
+		}
 	}
 
-	// BOZO - Provide mechanism for sending to multiple clients without serializing multiple times.
+	/** Serializes the object once into the calling thread's broadcast buffer. Serializers see no connection in the Kryo context,
+	 * so objects that need one (such as RMI) have to be sent to each connection separately. */
+	private ByteBuffer serialize (Object object) {
+		if (object == null) throw new IllegalArgumentException("object cannot be null.");
+		ByteBuffer buffer = broadcastBuffer.get();
+		buffer.clear();
+		try {
+			serialization.write(null, buffer, object);
+		} catch (Exception ex) {
+			throw new KryoNetException("Error serializing object of type: " + object.getClass().getName(), ex);
+		}
+		buffer.flip();
+		return buffer;
+	}
 
+	/** Serializes the object once and sends the same bytes to every connection. */
 	public void sendToAllTCP (Object object) {
 		Connection[] connections = this.connections;
+		if (connections.length == 0) return;
+		ByteBuffer data = serialize(object);
 		for (int i = 0, n = connections.length; i < n; i++) {
 			Connection connection = connections[i];
-			connection.sendTCP(object);
+			connection.sendTCP(data);
 		}
 	}
 
+	/** Serializes the object once and sends the same bytes to every connection but one. */
 	public void sendToAllExceptTCP (int connectionID, Object object) {
 		Connection[] connections = this.connections;
+		if (connections.length == 0) return;
+		ByteBuffer data = serialize(object);
 		for (int i = 0, n = connections.length; i < n; i++) {
 			Connection connection = connections[i];
-			if (connection.id != connectionID) connection.sendTCP(object);
+			if (connection.id != connectionID) connection.sendTCP(data);
 		}
 	}
 
 	public void sendToTCP (int connectionID, Object object) {
-		Connection[] connections = this.connections;
-		for (int i = 0, n = connections.length; i < n; i++) {
-			Connection connection = connections[i];
-			if (connection.id == connectionID) {
-				connection.sendTCP(object);
-				break;
-			}
+		Connection connection = getConnection(connectionID);
+		if (connection != null) connection.sendTCP(object);
+	}
+
+	/** Serializes the object once and sends the same bytes to the first count connections in connectionIDs. Unknown IDs are
+	 * skipped. */
+	public void sendToTCP (int[] connectionIDs, int count, Object object) {
+		ByteBuffer data = serialize(object);
+		for (int i = 0; i < count; i++) {
+			Connection connection = getConnection(connectionIDs[i]);
+			if (connection != null) connection.sendTCP(data);
 		}
 	}
 
+	/** Serializes the object once and sends the same bytes to every connection. */
 	public void sendToAllUDP (Object object) {
 		Connection[] connections = this.connections;
+		if (connections.length == 0) return;
+		ByteBuffer data = serialize(object);
 		for (int i = 0, n = connections.length; i < n; i++) {
 			Connection connection = connections[i];
-			connection.sendUDP(object);
+			connection.sendUDP(data);
 		}
 	}
 
+	/** Serializes the object once and sends the same bytes to every connection but one. */
 	public void sendToAllExceptUDP (int connectionID, Object object) {
 		Connection[] connections = this.connections;
+		if (connections.length == 0) return;
+		ByteBuffer data = serialize(object);
 		for (int i = 0, n = connections.length; i < n; i++) {
 			Connection connection = connections[i];
-			if (connection.id != connectionID) connection.sendUDP(object);
+			if (connection.id != connectionID) connection.sendUDP(data);
 		}
 	}
 
-	public void sendToUDP (int connectionID, Object object) {
-		Connection[] connections = this.connections;
-		for (int i = 0, n = connections.length; i < n; i++) {
-			Connection connection = connections[i];
-			if (connection.id == connectionID) {
-				connection.sendUDP(object);
-				break;
-			}
+	/** @return The number of bytes sent, 0 if there is no such connection.
+	 * @see Connection#sendUDP(Object) */
+	public int sendToUDP (int connectionID, Object object) {
+		Connection connection = getConnection(connectionID);
+		if (connection != null) return connection.sendUDP(object);
+		return 0;
+	}
+
+	/** Serializes the object once and sends the same bytes to the first count connections in connectionIDs. Unknown IDs are
+	 * skipped.
+	 * @param lengths If not null, receives the number of bytes sent to each connection, 0 for unknown IDs and -1 where the
+	 *           socket buffer was full. */
+	public void sendToUDP (int[] connectionIDs, int count, Object object, int[] lengths) {
+		ByteBuffer data = serialize(object);
+		for (int i = 0; i < count; i++) {
+			Connection connection = getConnection(connectionIDs[i]);
+			int length = connection != null ? connection.sendUDP(data) : 0;
+			if (lengths != null) lengths[i] = length;
 		}
 	}
 
@@ -595,6 +805,8 @@ public class Server implements EndPoint {
 	public void dispose () throws IOException {
 		close();
 		selector.close();
+		for (int i = 0, n = ioThreads.length; i < n; i++)
+			ioThreads[i].selector.close();
 	}
 
 	public Thread getUpdateThread () {
@@ -605,4 +817,127 @@ public class Server implements EndPoint {
 	public Connection[] getConnections () {
 		return connections;
 	}
+
+	static private class PendingRegistration {
+		final Connection connection;
+		final SocketChannel socketChannel;
+
+		PendingRegistration (Connection connection, SocketChannel socketChannel) {
+			this.connection = connection;
+			this.socketChannel = socketChannel;
+		}
+	}
+
+	/** Owns a selector and the TCP side of the connections registered with it. Connections are handed over by the update thread
+	 * and only ever touched by this thread afterwards, apart from the thread safe sends. */
+	private class IoThread implements Runnable {
+		final int index;
+		final Selector selector;
+		final ConcurrentLinkedQueue<PendingRegistration> pendingRegistrations = new ConcurrentLinkedQueue<PendingRegistration>();
+		final ArrayList<Connection> connections = new ArrayList<Connection>();
+		private Thread thread;
+		private int emptySelects;
+
+		IoThread (int index) throws IOException {
+			this.index = index;
+			selector = Selector.open();
+		}
+
+		void start () {
+			thread = new Thread(this, "Server I/O " + index);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void join () {
+			Thread thread = this.thread;
+			if (thread == null) return;
+			selector.wakeup();
+			try {
+				thread.join();
+			} catch (InterruptedException ignored) {
+			}
+			this.thread = null;
+		}
+
+		void register (Connection connection, SocketChannel socketChannel) {
+			pendingRegistrations.add(new PendingRegistration(connection, socketChannel));
+			selector.wakeup();
+		}
+
+		public void run () {
+			if (TRACE) trace("kryonet", "Server I/O thread " + index + " started.");
+			while (!shutdown) {
+				try {
+					update(250);
+				} catch (IOException ex) {
+					if (ERROR) error("kryonet", "Error updating server I/O thread " + index + ".", ex);
+				}
+			}
+			// Accepted after the server closed, nobody else knows about these.
+			PendingRegistration registration;
+			while ((registration = pendingRegistrations.poll()) != null) {
+				try {
+					registration.socketChannel.close();
+				} catch (IOException ignored) {
+				}
+			}
+			for (int i = 0, n = connections.size(); i < n; i++)
+				connections.get(i).tcp.free();
+			connections.clear();
+			if (TRACE) trace("kryonet", "Server I/O thread " + index + " stopped.");
+		}
+
+		private void update (int timeout) throws IOException {
+			PendingRegistration registration;
+			while ((registration = pendingRegistrations.poll()) != null) {
+				registerOperation(selector, registration.connection, registration.socketChannel);
+				if (registration.connection.isConnected()) connections.add(registration.connection);
+			}
+
+			long startTime = System.currentTimeMillis();
+			int select = selector.select(timeout);
+			if (select == 0) {
+				emptySelects++;
+				if (emptySelects == 100) {
+					emptySelects = 0;
+					// NIO freaks and returns immediately with 0 sometimes, so try to keep from hogging the CPU.
+					long elapsedTime = System.currentTimeMillis() - startTime;
+					try {
+						if (elapsedTime < 25) Thread.sleep(25 - elapsedTime);
+					} catch (InterruptedException ex) {
+					}
+				}
+			} else {
+				emptySelects = 0;
+				Set<SelectionKey> keys = selector.selectedKeys();
+				UdpConnection udp = Server.this.udp;
+				for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
+					SelectionKey selectionKey = iter.next();
+					iter.remove();
+					Connection fromConnection = (Connection)selectionKey.attachment();
+					try {
+						tcpOperation(fromConnection, selectionKey.readyOps(), udp);
+					} catch (CancelledKeyException ex) {
+						fromConnection.close();
+					}
+				}
+			}
+
+			// Once per pass instead of once per selected key, a pass touches every connection of this thread anyway.
+			long time = System.currentTimeMillis();
+			ArrayList<Connection> connections = this.connections;
+			for (int i = connections.size() - 1; i >= 0; i--) {
+				Connection connection = connections.get(i);
+				if (!connection.isConnected()) {
+					connection.tcp.free();
+					int last = connections.size() - 1;
+					connections.set(i, connections.get(last));
+					connections.remove(last);
+					continue;
+				}
+				checkConnection(connection, time);
+			}
+		}
+	}
 }
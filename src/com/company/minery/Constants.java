@@ -37,5 +37,14 @@ public final class Constants {
 	public static final String SERVER_IP = "46.101.243.103";
 	public static final int DEFAULT_TCP_PORT = 54555;
 	public static final int DEFAULT_UDP_PORT = 54777;
+	public static final int SNAPSHOT_HISTORY_SIZE = 64; // Decoded world states kept as delta baselines
+	public static final boolean UDP_CONNECTION_ID_PREFIX = true; // Prefix datagrams with our connection id, must match the server
+	public static final boolean UDP_BATCHING = true; // Datagrams from the server may hold several messages, must match the server
+	public static final int INBOUND_QUEUE_SIZE = 1024; // Received objects buffered between frames, power of two
+	public static final int INPUT_HISTORY_SIZE = 256; // Sent impulses kept for replay until the server applied them, one per frame
+	public static final int INTERPOLATION_BUFFER_SIZE = 32; // World states kept to render remote objects between
+	public static final int MIN_INTERPOLATION_DELAY = 20; // Milliseconds remote objects are rendered behind the server at least
+	public static final int MAX_INTERPOLATION_DELAY = 250; // Milliseconds remote objects are rendered behind the server at most
+	public static final int MAX_EXTRAPOLATION = 100; // Milliseconds remote objects keep moving when no newer world state arrived
 
 }
\ No newline at end of file
@@ -66,6 +66,7 @@ public final class Game implements Disposable {
 		players.add(localPlayer);
 		
 		currentMap = Generator.generateTestMap(assets);
+		client.setMap(currentMap);
 		
 		final MapLocation startLocation = currentMap.findLocationByName("p1_start");
 		
@@ -1,10 +1,11 @@
 package com.company.minery.game;
 
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
 import com.company.minery.Constants;
 import com.company.minery.game.map.Map;
-import com.company.minery.game.map.Tiles;
+import com.company.minery.game.map.CollisionMask;
 import com.company.minery.game.player.PhysicalObject;
 import com.company.minery.game.player.Player;
 import com.company.minery.game.player.Player.MovementDirection;
@@ -21,16 +22,10 @@ public final class GameUpdate {
 		final float tileWidth = map.tileWidth;
 		final float tileHeight = map.tileHeight;
 		
-		final float maxFallSpeed = -tileHeight * Constants.MAX_FALL_SPEED;
-		final float gravity = tileHeight * Constants.GRAVITY;
-		
 		final Array<PhysicalObject> physicalObjects = map.physicalObjects;
 
 		final Vector2 tmpVector = this.tmpVector;
 		
-		final float maxPlayerVelocityX = Constants.RUN_SPEED * tileWidth;
-		final float maxPlayerVelocityY = Constants.JUMP_HEIGHT * tileHeight;
-		
 		final float maxSpearVelocity = Constants.JUMP_HEIGHT * 2f * tileHeight;
 		
 		for(int i = 0; i < physicalObjects.size; i += 1) {
@@ -159,164 +154,134 @@ public final class GameUpdate {
 				object.animationTimer = animationTimer + deltaTime;
 			}
 			
-			// ************************************
-			// SET/UPDATE VELOCITY
-			// ************************************
+			move(deltaTime, object, map);
 			
 			if(object instanceof Player) {
-				object.velocityX = object.movementDirection.mul * maxPlayerVelocityX;
+				((Player) object).stepAnimation(deltaTime);
+			}
+		}
+		
+		checkCondition(game);
+	}
+	
+	/**
+	 * Sets the object's velocity from its movement and moves it through the map, without any of the game logic around it.
+	 * Client prediction replays the local player's unacknowledged input with it.
+	 */
+	public void move(final float deltaTime,
+					 final PhysicalObject object,
+					 final Map map) {
+		
+		final float tileWidth = map.tileWidth;
+		final float tileHeight = map.tileHeight;
+		
+		final float maxFallSpeed = -tileHeight * Constants.MAX_FALL_SPEED;
+		final float gravity = tileHeight * Constants.GRAVITY;
+		
+		final float maxPlayerVelocityX = Constants.RUN_SPEED * tileWidth;
+		final float maxPlayerVelocityY = Constants.JUMP_HEIGHT * tileHeight;
+		
+		// ************************************
+		// SET/UPDATE VELOCITY
+		// ************************************
+		
+		if(object instanceof Player) {
+			object.velocityX = object.movementDirection.mul * maxPlayerVelocityX;
+		}
+		
+		{
+			if(object.velocityX != 0f) {
+				object.isRunning = true;
+			}
+			else {
+				object.isRunning = false;
 			}
 			
-			{
-				if(object.velocityX != 0f) {
-					object.isRunning = true;
-				}
-				else {
-					object.isRunning = false;
-				}
+			if(object.requestsJump) {
+				object.requestsJump = false;
 				
-				if(object.requestsJump) {
-					object.requestsJump = false;
-					
-					if(!object.isInAir) {
-						object.isJumping = true;
-						object.isInAir = true;
-						object.velocityY = maxPlayerVelocityY;
-					}
+				if(!object.isInAir) {
+					object.isJumping = true;
+					object.isInAir = true;
+					object.velocityY = maxPlayerVelocityY;
 				}
-				else {
-					if(!(object instanceof Spear && object.movementDirection == MovementDirection.Idle)) {
-						float velY = object.velocityY - gravity * deltaTime;
-						
-						if(velY < maxFallSpeed) {
-							velY = maxFallSpeed;
-						}
-						object.velocityY = velY;
+			}
+			else {
+				if(!(object instanceof Spear && object.movementDirection == MovementDirection.Idle)) {
+					float velY = object.velocityY - gravity * deltaTime;
+					
+					if(velY < maxFallSpeed) {
+						velY = maxFallSpeed;
 					}
+					object.velocityY = velY;
 				}
 			}
+		}
+		
+		final float pawnX;
+		final float pawnY;
+		final float pawnWidth = object.width;
+		final float pawnHeight = object.height;
+		
+		// ************************************
+		// APPLY MOVEMENT/COLLISIONS
+		// ************************************
+		{
+			final float currentX = object.x;
+			final float currentY = object.y;
 			
-			final float pawnX;
-			final float pawnY;
-			final float pawnWidth = object.width;
-			final float pawnHeight = object.height;
+			final float velocityX = object.velocityX;
+			final float velocityY = object.velocityY;
 			
-			// ************************************
-			// APPLY MOVEMENT/COLLISIONS
-			// ************************************
-			{
-				final float currentX = object.x;
-				final float currentY = object.y;
-				
-				final float velocityX = object.velocityX;
-				final float velocityY = object.velocityY;
-				
-				final float normVelocityX = velocityX * deltaTime;
-				final float normVelocityY = velocityY * deltaTime;
-				
-				final int segmentsX = 8; // TODO: calculate by the movement amount
-				final int segmentsY = 8; // TODO: calculate by the movement amount
-				final int segments = Math.max(segmentsX, segmentsY);
-				
-				float xMod = 1f;
-				float yMod = 1f;
-				
-				{
-					final float segmentStep = 1f / segments;
-					for(int ii = segments; ii >= 1; ii -= 1) {
-						final float mod = (segmentStep * ii);
-						xMod = mod;
-						yMod = mod;
-						
-						final float x = currentX + normVelocityX * xMod;
-						final float y = currentY + normVelocityY * yMod;
-						
-						if(!checkPawnCollision(object, x, y, x + pawnWidth, y + pawnHeight, map)) {
-							break;
-						}
-						else {
-							xMod = 0f;
-							yMod = 0f;
-						}
-					}
-				}
-				
-				{
-					final float y = currentY + normVelocityY * yMod;
-					final float segmentStep = 1f / segmentsX;
-					for(int ii = segments; ii >= 1; ii -= 1) {
-						final float mod = (segmentStep * ii);
-						xMod = mod;
-						
-						final float x = currentX + normVelocityX * xMod;
-						
-						if(!checkPawnCollision(object, x, y, x + pawnWidth, y + pawnHeight, map)) {
-							break;
-						}
-						else {
-							xMod = 0f;
-						}
-					}
-				}
-				
-				{
-					final float x = currentX + normVelocityX * xMod;
-					final float segmentStep = 1f / segmentsY;
-					for(int ii = segments; ii >= 1; ii -= 1) {
-						final float mod = (segmentStep * ii);
-						yMod = mod;
-						
-						final float y = currentY + normVelocityY * yMod;
-						
-						if(!checkPawnCollision(object, x, y, x + pawnWidth, y + pawnHeight, map)) {
-							object.isInAir = true;
-							break;
-						}
-						else {
-							yMod = 0f;
-						}
-					}
-				}
-				
-				if(object instanceof Spear) {
-					if(xMod != 1 || yMod != 1) {
-						object.velocityX = 0;
-						object.velocityY = 0;
-						object.movementDirection = MovementDirection.Idle;
-					}
+			final float normVelocityX = velocityX * deltaTime;
+			final float normVelocityY = velocityY * deltaTime;
+			
+			final boolean embedded = checkPawnCollision(object, currentX, currentY, currentX + pawnWidth, currentY + pawnHeight, map);
+			
+			// Sweep each axis through the tile grid up to the first solid tile, x first and then y from the new x. Every
+			// tile row or column the leading edge crosses is visited, so fast objects can't skip over thin walls.
+			final float x = embedded ? currentX : sweepX(currentX, currentY, pawnWidth, pawnHeight, normVelocityX, map);
+			final float y = embedded ? currentY : sweepY(x, currentY, pawnWidth, pawnHeight, normVelocityY, map);
+			
+			final boolean blockedX = embedded || x != currentX + normVelocityX;
+			final boolean blockedY = embedded || y != currentY + normVelocityY;
+			
+			if(!blockedY) {
+				object.isInAir = true;
+			}
+			
+			if(object instanceof Spear) {
+				if(blockedX || blockedY) {
+					object.velocityX = 0;
+					object.velocityY = 0;
+					object.movementDirection = MovementDirection.Idle;
 				}
-				
-				pawnX = currentX + normVelocityX * xMod;
-				pawnY = currentY + normVelocityY * yMod;
-				
-				object.x = pawnX;
-				object.y = pawnY;
+			}
+			
+			pawnX = x;
+			pawnY = y;
+			
+			object.x = pawnX;
+			object.y = pawnY;
 
-				// If hits sides
-				if(xMod == 0) {
-					object.isRunning = false;
-				}
-				
-				// If hits the ground or top.
-				if(yMod == 0f) {
-					// If velocity is less than 0 this means that pawn has hit the ground.
-					if(normVelocityY < 0f) {
-						object.isInAir = false;
-					}
-					object.velocityY = 0f;
-				}
-				
-				if(object.velocityY <= 0f) {
-					object.isJumping = false;
+			// If hits sides
+			if(blockedX) {
+				object.isRunning = false;
+			}
+			
+			// If hits the ground or top.
+			if(blockedY) {
+				// If velocity is less than 0 this means that pawn has hit the ground.
+				if(normVelocityY < 0f) {
+					object.isInAir = false;
 				}
+				object.velocityY = 0f;
 			}
-
-			if(object instanceof Player) {
-				((Player) object).stepAnimation(deltaTime);
+			
+			if(object.velocityY <= 0f) {
+				object.isJumping = false;
 			}
 		}
-		
-		checkCondition(game);
 	}
 	
 	private void stopPlayers(final Game game) {
@@ -356,6 +321,9 @@ public final class GameUpdate {
 		return false;
 	}
 	
+	// Gap kept in front of tiles hit with the right or top edge, in tiles.
+	private static final float COLLISION_SKIN = 0.001f;
+	
 	private static final int COL_NONE = 0;
 	private static final int COL_BODY = 1;
 	private static final int COL_HEAD = 2;
@@ -385,38 +353,123 @@ public final class GameUpdate {
 		return COL_BODY;
 	}
 	
-	private boolean checkPawnCollision(final PhysicalObject object, 
-									   final float pawnX, 
-									   final float pawnY, 
-									   final float pawnRight, 
-									   final float pawnTop,
-									   final Map map) {
+	/**
+	 * Moves a box horizontally by distance and returns its new x, stopped in front of the first column of solid tiles its
+	 * leading edge enters. The box is expected to start outside of solid tiles.
+	 */
+	private float sweepX(final float pawnX,
+						 final float pawnY,
+						 final float pawnWidth,
+						 final float pawnHeight,
+						 final float distance,
+						 final Map map) {
+		
+		if(distance == 0f) {
+			return pawnX;
+		}
 		
 		final float tileWidth = map.tileWidth;
 		final float tileHeight = map.tileHeight;
 		
-		final Tiles tiles = map.mainLayer.tiles;
-		final byte[] tileIndexes = tiles.tiles;
-		final int tilesWidth = tiles.width;
+		final int tileBottom = MathUtils.floor(pawnY / tileHeight);
+		final int tileTop = MathUtils.floor((pawnY + pawnHeight) / tileHeight);
+		
+		if(distance > 0f) {
+			final float pawnRight = pawnX + pawnWidth;
+			final int tileFrom = MathUtils.floor(pawnRight / tileWidth) + 1;
+			final int tileTo = MathUtils.floor((pawnRight + distance) / tileWidth);
+			
+			if(tileFrom <= tileTo) {
+				final int xi = map.collisionMask.firstSolidColumn(tileFrom, tileTo, tileBottom, tileTop);
+				
+				if(xi != CollisionMask.NONE) {
+					// A right edge exactly on the tile border already overlaps the tile.
+					return Math.max(pawnX, xi * tileWidth - pawnWidth - COLLISION_SKIN * tileWidth);
+				}
+			}
+		}
+		else {
+			final int tileFrom = MathUtils.floor(pawnX / tileWidth) - 1;
+			final int tileTo = MathUtils.floor((pawnX + distance) / tileWidth);
+			
+			if(tileFrom >= tileTo) {
+				final int xi = map.collisionMask.firstSolidColumn(tileFrom, tileTo, tileBottom, tileTop);
+				
+				if(xi != CollisionMask.NONE) {
+					return (xi + 1) * tileWidth;
+				}
+			}
+		}
+		
+		return pawnX + distance;
+	}
+	
+	/**
+	 * Vertical counterpart of {@link #sweepX}.
+	 */
+	private float sweepY(final float pawnX,
+						 final float pawnY,
+						 final float pawnWidth,
+						 final float pawnHeight,
+						 final float distance,
+						 final Map map) {
 		
-		final int tileLeft = (int)(pawnX / tileWidth);
-		final int tileBottom = (int)(pawnY / tileHeight);
-		final int tileRight = (int)(pawnRight / tileWidth);
-		final int tileTop = (int)(pawnTop / tileHeight);
+		if(distance == 0f) {
+			return pawnY;
+		}
 		
-		for(int yi = tileBottom; yi <= tileTop; yi += 1) {
-			for(int xi = tileLeft; xi <= tileRight; xi += 1) {
-				final byte tileIndex = tileIndexes[yi * tilesWidth + xi];
+		final float tileWidth = map.tileWidth;
+		final float tileHeight = map.tileHeight;
+		
+		final int tileLeft = MathUtils.floor(pawnX / tileWidth);
+		final int tileRight = MathUtils.floor((pawnX + pawnWidth) / tileWidth);
+		
+		if(distance > 0f) {
+			final float pawnTop = pawnY + pawnHeight;
+			final int tileFrom = MathUtils.floor(pawnTop / tileHeight) + 1;
+			final int tileTo = MathUtils.floor((pawnTop + distance) / tileHeight);
+			
+			if(tileFrom <= tileTo) {
+				final int yi = map.collisionMask.firstSolidRow(tileFrom, tileTo, tileLeft, tileRight);
 				
-				if(tileIndex == -128) {
-					continue;
+				if(yi != CollisionMask.NONE) {
+					// A top edge exactly on the tile border already overlaps the tile.
+					return Math.max(pawnY, yi * tileHeight - pawnHeight - COLLISION_SKIN * tileHeight);
 				}
+			}
+		}
+		else {
+			final int tileFrom = MathUtils.floor(pawnY / tileHeight) - 1;
+			final int tileTo = MathUtils.floor((pawnY + distance) / tileHeight);
+			
+			if(tileFrom >= tileTo) {
+				final int yi = map.collisionMask.firstSolidRow(tileFrom, tileTo, tileLeft, tileRight);
 				
-				return true;
+				if(yi != CollisionMask.NONE) {
+					return (yi + 1) * tileHeight;
+				}
 			}
 		}
 		
-		return false;
+		return pawnY + distance;
+	}
+	
+	private boolean checkPawnCollision(final PhysicalObject object, 
+									   final float pawnX, 
+									   final float pawnY, 
+									   final float pawnRight, 
+									   final float pawnTop,
+									   final Map map) {
+		
+		final float tileWidth = map.tileWidth;
+		final float tileHeight = map.tileHeight;
+		
+		final int tileLeft = MathUtils.floor(pawnX / tileWidth);
+		final int tileBottom = MathUtils.floor(pawnY / tileHeight);
+		final int tileRight = MathUtils.floor(pawnRight / tileWidth);
+		final int tileTop = MathUtils.floor(pawnTop / tileHeight);
+		
+		return map.collisionMask.isSolid(tileLeft, tileBottom, tileRight, tileTop);
 	}
 	
 }
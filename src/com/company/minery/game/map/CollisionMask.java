@@ -0,0 +1,167 @@
+package com.company.minery.game.map;
+
+/**
+ * Packed solidity of a tile layer, built once when the map is created and shared read only by every game on it. Rows and columns
+ * are stored as separate bitsets so both horizontal and vertical queries test 64 tiles per word. Tiles outside of the layer
+ * count as solid.
+ */
+public final class CollisionMask {
+	
+	public static final int NONE = Integer.MIN_VALUE;
+	
+	public final int width;
+	public final int height;
+	
+	// Bit x of row y, and bit y of column x.
+	private final int rowWords;
+	private final long[] rows;
+	private final int columnWords;
+	private final long[] columns;
+	
+	public CollisionMask(final Tiles tiles) {
+		this.width = tiles.width;
+		this.height = tiles.height;
+		
+		rowWords = (width + 63) >>> 6;
+		rows = new long[rowWords * height];
+		columnWords = (height + 63) >>> 6;
+		columns = new long[columnWords * width];
+		
+		final byte[] tileIndexes = tiles.tiles;
+		
+		for(int yi = 0; yi < height; yi += 1) {
+			for(int xi = 0; xi < width; xi += 1) {
+				if(tileIndexes[yi * width + xi] != -128) {
+					rows[yi * rowWords + (xi >>> 6)] |= 1L << (xi & 63);
+					columns[xi * columnWords + (yi >>> 6)] |= 1L << (yi & 63);
+				}
+			}
+		}
+	}
+	
+	public boolean isSolid(final int xi,
+						   final int yi) {
+		
+		if(xi < 0 || yi < 0 || xi >= width || yi >= height) {
+			return true;
+		}
+		return (rows[yi * rowWords + (xi >>> 6)] & (1L << (xi & 63))) != 0;
+	}
+	
+	/**
+	 * Whether any tile of the inclusive box is solid.
+	 */
+	public boolean isSolid(final int tileLeft,
+						   final int tileBottom,
+						   final int tileRight,
+						   final int tileTop) {
+		
+		return firstSolidColumn(tileLeft, tileRight, tileBottom, tileTop) != NONE;
+	}
+	
+	/**
+	 * Walks the columns from one index to the other, in either direction, and returns the first one with a solid tile between
+	 * the given rows, or {@link #NONE}.
+	 */
+	public int firstSolidColumn(final int from,
+								final int to,
+								final int tileBottom,
+								final int tileTop) {
+		
+		if(tileBottom < 0 || tileTop >= height) {
+			return from;
+		}
+		return firstSolid(rows, rowWords, width, from, to, tileBottom, tileTop);
+	}
+	
+	/**
+	 * Walks the rows from one index to the other, in either direction, and returns the first one with a solid tile between the
+	 * given columns, or {@link #NONE}.
+	 */
+	public int firstSolidRow(final int from,
+							 final int to,
+							 final int tileLeft,
+							 final int tileRight) {
+		
+		if(tileLeft < 0 || tileRight >= width) {
+			return from;
+		}
+		return firstSolid(columns, columnWords, height, from, to, tileLeft, tileRight);
+	}
+	
+	/**
+	 * Finds the first bit from one index to the other that is set in any of the given lines.
+	 */
+	private static int firstSolid(final long[] bits,
+								  final int words,
+								  final int length,
+								  final int from,
+								  final int to,
+								  final int lineFrom,
+								  final int lineTo) {
+		
+		if(from <= to) {
+			if(from < 0) {
+				return from;
+			}
+			
+			final int end = Math.min(to, length - 1);
+			
+			for(int word = from >>> 6; word <= end >>> 6 && from <= end; word += 1) {
+				long mask = -1L;
+				if(word == from >>> 6) {
+					mask &= -1L << (from & 63);
+				}
+				if(word == end >>> 6) {
+					mask &= -1L >>> (63 - (end & 63));
+				}
+				
+				final long solid = collect(bits, words, word, lineFrom, lineTo) & mask;
+				if(solid != 0) {
+					return (word << 6) + Long.numberOfTrailingZeros(solid);
+				}
+			}
+			
+			return to >= length ? Math.max(from, length) : NONE;
+		}
+		else {
+			if(from >= length) {
+				return from;
+			}
+			
+			final int end = Math.max(to, 0);
+			
+			for(int word = from >>> 6; word >= end >>> 6 && from >= end; word -= 1) {
+				long mask = -1L;
+				if(word == from >>> 6) {
+					mask &= -1L >>> (63 - (from & 63));
+				}
+				if(word == end >>> 6) {
+					mask &= -1L << (end & 63);
+				}
+				
+				final long solid = collect(bits, words, word, lineFrom, lineTo) & mask;
+				if(solid != 0) {
+					return (word << 6) + 63 - Long.numberOfLeadingZeros(solid);
+				}
+			}
+			
+			return to < 0 ? Math.min(from, -1) : NONE;
+		}
+	}
+	
+	private static long collect(final long[] bits,
+								final int words,
+								final int word,
+								final int lineFrom,
+								final int lineTo) {
+		
+		long solid = 0;
+		
+		for(int line = lineFrom; line <= lineTo; line += 1) {
+			solid |= bits[line * words + word];
+		}
+		return solid;
+	}
+	
+}
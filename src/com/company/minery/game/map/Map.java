@@ -16,6 +16,7 @@ public final class Map {
 	public final Layer[] layers;
 	public final Layer mainLayer;
 	public final int mainLayerIndex;
+	public final CollisionMask collisionMask;
 	
 	public final MapLocation[] mapLocations;
 	
@@ -35,6 +36,7 @@ public final class Map {
 		this.layers = layers;
 		this.mainLayer = mainLayer;
 		this.mainLayerIndex = mainLayerIndex;
+		this.collisionMask = new CollisionMask(mainLayer.tiles);
 		this.mapLocations = mapLocations;
 		this.tileWidth = tileWidth;
 		this.tileHeight = tileHeight;
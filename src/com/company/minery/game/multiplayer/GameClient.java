@@ -1,29 +1,50 @@
 package com.company.minery.game.multiplayer;
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+import com.company.minery.Constants;
 import com.company.minery.game.Game;
 import com.company.minery.game.GameUpdate;
+import com.company.minery.game.map.Map;
 import com.company.minery.game.multiplayer.messages.ClientAssignmentMessage;
 import com.company.minery.game.multiplayer.messages.ImpulseMessage;
 import com.company.minery.game.multiplayer.messages.ObjectMessage;
 import com.company.minery.game.multiplayer.messages.PlayerMessage;
 import com.company.minery.game.multiplayer.messages.SpearMessage;
 import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+import com.company.minery.game.multiplayer.messages.WorldStateQuantizer;
 import com.company.minery.game.player.PhysicalObject;
 import com.company.minery.game.player.Player;
 import com.company.minery.game.player.Player.MovementDirection;
 import com.company.minery.game.player.Spear;
 import com.company.minery.utils.kryonet.Client;
 import com.company.minery.utils.kryonet.Connection;
+import com.company.minery.utils.kryonet.FrameworkMessage;
 import com.company.minery.utils.kryonet.Listener;
 
 public final class GameClient {
 
 	private final Game game;
 	private final Client client;
+	private final WorldStateQuantizer quantizer = new WorldStateQuantizer();
 	private final GameUpdate worldUpdate = new GameUpdate();
-	private final Array<Object> receivedObjects = new Array<Object>();
+	private final InboundQueue receivedObjects = new InboundQueue(Constants.INBOUND_QUEUE_SIZE);
+	private final InboundQueue.Handler receivedObjectHandler;
+	
+	private final SnapshotHistory snapshots = new SnapshotHistory(Constants.SNAPSHOT_HISTORY_SIZE);
+	private int latestSnapshot = WorldStateMessage.NO_BASELINE;
+	
+	private final LongMap<Player> playersByUid = new LongMap<Player>();
+	private final LongMap<Spear> spearsByUid = new LongMap<Spear>();
+	private int generation;
+	
+	private final InputHistory inputs = new InputHistory(Constants.INPUT_HISTORY_SIZE);
+	private int impulseSequence;
+	
+	private final InterpolationBuffer interpolation = new InterpolationBuffer(Constants.INTERPOLATION_BUFFER_SIZE, 
+																			  Constants.MIN_INTERPOLATION_DELAY, 
+																			  Constants.MAX_INTERPOLATION_DELAY);
+	private final LongMap<ObjectMessage> olderObjects = new LongMap<ObjectMessage>();
 	
 	public GameClient(final Game game) {
 		this.game = game;
@@ -44,14 +65,13 @@ public final class GameClient {
 			public void received(final Connection connection, 
 								 final Object object) {
 				
-				Gdx.app.postRunnable(new Runnable() {
-					
-					@Override
-					public final void run() {
-						receivedObjects.add(object);
-					}
-					
-				});
+				// A newer world state will follow a dropped one, anything else has to get through.
+				if(object instanceof WorldStateMessage) {
+					receivedObjects.offer(InboundQueue.EVENT_RECEIVED, connection, object);
+				}
+				else if(!(object instanceof FrameworkMessage)) {
+					receivedObjects.put(InboundQueue.EVENT_RECEIVED, connection, object);
+				}
 			}
 			
 			@Override
@@ -59,7 +79,28 @@ public final class GameClient {
 			}
 		});
 		
-		Multiplayer.register(client);
+		receivedObjectHandler = new InboundQueue.Handler() {
+			
+			@Override
+			public void handle(final int event,
+							   final Connection connection,
+							   final Object object) {
+				
+				processObject(object);
+			}
+			
+		};
+		
+		client.setUdpConnectionIDPrefix(Constants.UDP_CONNECTION_ID_PREFIX);
+		client.setUdpBatching(Constants.UDP_BATCHING);
+		Multiplayer.register(client, quantizer);
+	}
+	
+	/**
+	 * Has to be called with the unscaled map before connecting, world states are quantized relative to it.
+	 */
+	public void setMap(final Map map) {
+		quantizer.setMap(map);
 	}
 	
 	public boolean begin(final String serverIpAddress, 
@@ -79,6 +120,10 @@ public final class GameClient {
 		game.players.clear();
 		game.spears.clear();
 		game.currentMap().physicalObjects.clear();
+		
+		// The server counts impulses per connection.
+		impulseSequence = 0;
+		inputs.clear();
 		return true;
 	}
 	
@@ -91,151 +136,32 @@ public final class GameClient {
 	}
 	
 	public void update(final float deltaTime) {
-		final boolean requestsJump = game.localPlayer().requestsJump;
-		final boolean requestsAttack = game.localPlayer().requestsAttack;
-		final float attackX = game.localPlayer().attackX;
-		final float attackY = game.localPlayer().attackY;
+		final Player localPlayer = game.localPlayer();
+		final boolean requestsJump = localPlayer.requestsJump;
+		final boolean requestsAttack = localPlayer.requestsAttack;
+		final float attackX = localPlayer.attackX;
+		final float attackY = localPlayer.attackY;
 		
-		final Player.MovementDirection movementDirection = game.localPlayer().movementDirection;
+		final Player.MovementDirection movementDirection = localPlayer.movementDirection;
 		
-		{
-			final Array<Object> receivedObjects = this.receivedObjects;
-			final int n = receivedObjects.size;
-			
-			for(int i = 0; i < n; i += 1) {
-				final Object object = receivedObjects.get(i);
-				
-				if(object instanceof WorldStateMessage) {
-					final WorldStateMessage worldState = (WorldStateMessage) object;
-					
-					final PlayerMessage[] players = worldState.players;
-					final SpearMessage[] spears = worldState.spears;
-					final float scale = game.assets.resolution.calcScale();
-					
-					for(int ii = 0; ii < players.length; ii += 1) {
-						final PlayerMessage message = players[ii];
-						
-						boolean found = false;
-						
-						for(int iii = 0; iii < game.players.size; iii += 1) {
-							final Player player = game.players.get(iii);
-							
-							if(player.uid == message.uid) {
-								setPlayerState(player, message, scale);
-								found = true;
-								break;
-							}
-						}
-						
-						if(!found) {
-							final Player player = new Player(false, message.uid);
-							player.applyAppearance(game.assets);
-							game.players.add(player);
-							game.currentMap().physicalObjects.add(player);
-							setPlayerState(player, message, scale);
-						}
-					}
-					
-					for(int ii = 0; ii < spears.length; ii += 1) {
-						final SpearMessage message = spears[ii];
-						
-						boolean found = false;
-						
-						for(int iii = 0; iii < game.spears.size; iii += 1) {
-							final Spear spear = game.spears.get(iii);
-							
-							if(spear.uid == message.uid) {
-								setSpearState(spear, message, scale);
-								found = true;
-								break;
-							}
-						}
-						
-						if(!found) {
-							System.out.println("Created spear");
-							final Spear spear = new Spear(message.uid);
-							spear.applyAppearance(game.assets);
-							game.spears.add(spear);
-							game.currentMap().physicalObjects.add(spear);
-							setSpearState(spear, message, scale);
-							game.assets.throwSound.play();
-						}
-					}
-					
-					// Handle removal.
-					for(int ii = 0; ii < game.spears.size; ii += 1) {
-						final Spear spear = game.spears.get(ii);
-
-						boolean found = false;
-						
-						for(int iii = 0; iii < spears.length; iii += 1) {
-							final SpearMessage message = spears[iii];
-							
-							if(spear.uid == message.uid) {
-								found = true;
-								break;
-							}
-						}
-						
-						if(!found) {
-							final int indexInMap = game.currentMap().physicalObjects.indexOf(spear, true);
-							
-							if(indexInMap != -1) {
-								game.currentMap().physicalObjects.removeIndex(indexInMap);
-							}
-							
-							game.spears.removeIndex(ii);
-							ii -= 1;
-						}
-					}
-				}
-				else if(object instanceof ClientAssignmentMessage) {
-					game.playing = true;
-					final ClientAssignmentMessage clientAssignment = (ClientAssignmentMessage) object;
-					
-					game.assets.fightSound.play();
-					game.message = game.assets.fightLabel;
-					game.messageTimer = 0;
-					
-					final Player localPlayer = new Player(true, clientAssignment.playerUid);
-					localPlayer.applyAppearance(game.assets);
-					game.setLocalPlayer(localPlayer);
-					game.inputTranslator.setListener(localPlayer);
-					
-					if(game.players.size == 2) {
-						for(int ii = 0; ii < game.players.size; ii += 1) {
-							final Player p = game.players.get(ii);
-							
-							if(p.uid == localPlayer.uid) {
-								game.players.removeIndex(ii);
-								game.currentMap().physicalObjects.removeValue(p, true);
-								break;
-							}
-						}
-					}
-					
-					game.players.clear();
-					game.spears.clear();
-					game.currentMap().physicalObjects.clear();
-					
-					game.players.add(localPlayer);
-					game.currentMap().physicalObjects.add(localPlayer);
-				
-					final float scale = game.assets.resolution.calcScale();
-					
-					localPlayer.x = clientAssignment.x * scale;
-					localPlayer.y = clientAssignment.y * scale;
-				}
-			}
-			
-			receivedObjects.clear();
+		receivedObjects.drain(receivedObjectHandler);
+		
+		// A snapshot leaves the local player with the input the server last applied, this frame's input goes on top.
+		if(game.localPlayer() == localPlayer && !localPlayer.dead) {
+			localPlayer.movementDirection = movementDirection;
+			localPlayer.requestsJump = requestsJump;
 		}
 		
 		worldUpdate.update(deltaTime, game, game.currentMap());
+		interpolateRemoteObjects();
 		
 		if(client.isConnected()) {
 			final ImpulseMessage impulseMessage = new ImpulseMessage();
 			
+			impulseSequence += 1;
+			inputs.put(impulseSequence, movementDirection, requestsJump, deltaTime);
+			
+			impulseMessage.sequence = impulseSequence;
 			impulseMessage.jumpFlag = requestsJump;
 			impulseMessage.movementFlag = (byte) movementDirection.id;
 			impulseMessage.messageTime = System.currentTimeMillis();
@@ -243,11 +169,290 @@ public final class GameClient {
 			impulseMessage.attackX = attackX;
 			impulseMessage.attackY = attackY;
 			impulseMessage.scale = game.assets.resolution.calcScale();
+			impulseMessage.acknowledgedSnapshot = latestSnapshot;
+			impulseMessage.receivedMask = snapshots.receivedMask(latestSnapshot);
 			
 			client.sendUDP(impulseMessage);
 		}
 	}
 	
+	private void processObject(final Object object) {
+		if(object instanceof WorldStateMessage) {
+			final WorldStateMessage received = (WorldStateMessage) object;
+			final WorldStateMessage baseline = snapshots.get(received.baseline);
+			
+			if(received.baseline != WorldStateMessage.NO_BASELINE && baseline == null) {
+				// The baseline is gone, the server falls back to a full state once our ack is out of its history.
+				return;
+			}
+			
+			final WorldStateMessage worldState = SnapshotDelta.decode(received, baseline);
+			snapshots.put(worldState);
+			
+			if(worldState.sequence <= latestSnapshot) {
+				// Arrived out of order, only useful as a baseline.
+				return;
+			}
+			latestSnapshot = worldState.sequence;
+			interpolation.add(worldState, localTime());
+			
+			applyWorldState(worldState);
+		}
+		else if(object instanceof ClientAssignmentMessage) {
+			game.playing = true;
+			final ClientAssignmentMessage clientAssignment = (ClientAssignmentMessage) object;
+			
+			snapshots.clear();
+			latestSnapshot = WorldStateMessage.NO_BASELINE;
+			interpolation.clear();
+			
+			game.assets.fightSound.play();
+			game.message = game.assets.fightLabel;
+			game.messageTimer = 0;
+			
+			final Player localPlayer = new Player(true, clientAssignment.playerUid);
+			localPlayer.applyAppearance(game.assets);
+			game.setLocalPlayer(localPlayer);
+			game.inputTranslator.setListener(localPlayer);
+			
+			game.players.clear();
+			game.spears.clear();
+			game.currentMap().physicalObjects.clear();
+			
+			game.players.add(localPlayer);
+			game.currentMap().physicalObjects.add(localPlayer);
+		
+			final float scale = game.assets.resolution.calcScale();
+			
+			localPlayer.x = clientAssignment.x * scale;
+			localPlayer.y = clientAssignment.y * scale;
+		}
+	}
+	
+	/**
+	 * Matches the snapshot's objects by uid through the indices, everything the snapshot carried is stamped with the current
+	 * generation and the spears that weren't stamped are removed in a single pass.
+	 */
+	private void applyWorldState(final WorldStateMessage worldState) {
+		final PlayerMessage[] players = worldState.players;
+		final SpearMessage[] spears = worldState.spears;
+		final Array<PhysicalObject> physicalObjects = game.currentMap().physicalObjects;
+		final float scale = game.assets.resolution.calcScale();
+		
+		generation += 1;
+		
+		// Rebuilt every time, the game update removes spears that are picked up and an assignment clears the game.
+		playersByUid.clear();
+		spearsByUid.clear();
+		
+		for(int i = 0; i < game.players.size; i += 1) {
+			final Player player = game.players.get(i);
+			playersByUid.put(player.uid, player);
+		}
+		for(int i = 0; i < game.spears.size; i += 1) {
+			final Spear spear = game.spears.get(i);
+			spearsByUid.put(spear.uid, spear);
+		}
+		
+		for(int i = 0; i < worldState.playerCount; i += 1) {
+			final PlayerMessage message = players[i];
+			Player player = playersByUid.get(message.uid);
+			
+			if(player == null) {
+				player = new Player(false, message.uid);
+				player.applyAppearance(game.assets);
+				game.players.add(player);
+				physicalObjects.add(player);
+				playersByUid.put(player.uid, player);
+			}
+			
+			player.snapshotGeneration = generation;
+			setPlayerState(player, message, scale);
+			
+			if(player == game.localPlayer()) {
+				// Only the low bits of the sequence are sent, the rest follows from the impulses sent since.
+				final int mask = (1 << PlayerMessage.LAST_IMPULSE_BITS) - 1;
+				replayInputs(player, impulseSequence - ((impulseSequence - message.lastImpulse) & mask));
+			}
+		}
+		
+		for(int i = 0; i < worldState.spearCount; i += 1) {
+			final SpearMessage message = spears[i];
+			Spear spear = spearsByUid.get(message.uid);
+			
+			if(spear == null) {
+				System.out.println("Created spear");
+				spear = new Spear(message.uid);
+				spear.applyAppearance(game.assets);
+				game.spears.add(spear);
+				physicalObjects.add(spear);
+				spearsByUid.put(spear.uid, spear);
+				game.assets.throwSound.play();
+			}
+			
+			spear.snapshotGeneration = generation;
+			setSpearState(spear, message, scale);
+		}
+		
+		// Handle removal.
+		final int spearCount = game.spears.size;
+		int kept = 0;
+		
+		for(int i = 0; i < spearCount; i += 1) {
+			final Spear spear = game.spears.get(i);
+			
+			if(spear.snapshotGeneration == generation) {
+				game.spears.set(kept, spear);
+				kept += 1;
+			}
+		}
+		
+		if(kept == spearCount) {
+			return;
+		}
+		game.spears.truncate(kept);
+		
+		final int objectCount = physicalObjects.size;
+		kept = 0;
+		
+		for(int i = 0; i < objectCount; i += 1) {
+			final PhysicalObject physicalObject = physicalObjects.get(i);
+			
+			if(!(physicalObject instanceof Spear) || physicalObject.snapshotGeneration == generation) {
+				physicalObjects.set(kept, physicalObject);
+				kept += 1;
+			}
+		}
+		physicalObjects.truncate(kept);
+	}
+	
+	/**
+	 * Moves the local player on from the server's state by the impulses the server had not applied yet when it took the
+	 * snapshot, each for the frame time it was simulated with when it was sent. Game logic like attacks is left to the
+	 * server.
+	 */
+	private void replayInputs(final Player player,
+							  final int lastImpulse) {
+		
+		if(player.dead) {
+			return;
+		}
+		
+		final Map map = game.currentMap();
+		final int first = Math.max(lastImpulse + 1, impulseSequence - Constants.INPUT_HISTORY_SIZE + 1);
+		
+		for(int sequence = first; sequence <= impulseSequence; sequence += 1) {
+			if(inputs.contains(sequence)) {
+				player.movementDirection = inputs.movementDirection(sequence);
+				player.requestsJump = inputs.jump(sequence);
+				worldUpdate.move(inputs.deltaTime(sequence), player, map);
+			}
+		}
+	}
+	
+	/**
+	 * Places remote players and spears between the two buffered world states around the render time. Without a newer world
+	 * state they keep moving on their last velocity for a while and then stop. The local player is predicted instead.
+	 */
+	private void interpolateRemoteObjects() {
+		final double renderTime = interpolation.renderTime(localTime());
+		final WorldStateMessage older = interpolation.older(renderTime);
+		final WorldStateMessage newer = interpolation.newer(renderTime);
+		final float scale = game.assets.resolution.calcScale();
+		
+		if(newer == null) {
+			if(older != null) {
+				final float seconds = (float) Math.min(renderTime - older.messageTime, Constants.MAX_EXTRAPOLATION) / 1000f;
+				
+				for(int i = 0; i < older.playerCount; i += 1) {
+					extrapolate(remotePlayer(older.players[i].uid), older.players[i], seconds, scale);
+				}
+				for(int i = 0; i < older.spearCount; i += 1) {
+					extrapolate(spearsByUid.get(older.spears[i].uid), older.spears[i], seconds, scale);
+				}
+			}
+			return;
+		}
+		
+		final float alpha;
+		olderObjects.clear();
+		
+		if(older == null) {
+			// Nothing old enough yet, the newer state is as close as it gets.
+			alpha = 1f;
+		}
+		else {
+			alpha = (float) ((renderTime - older.messageTime) / (newer.messageTime - older.messageTime));
+			
+			for(int i = 0; i < older.playerCount; i += 1) {
+				olderObjects.put(older.players[i].uid, older.players[i]);
+			}
+			for(int i = 0; i < older.spearCount; i += 1) {
+				olderObjects.put(older.spears[i].uid, older.spears[i]);
+			}
+		}
+		
+		for(int i = 0; i < newer.playerCount; i += 1) {
+			final PlayerMessage message = newer.players[i];
+			interpolate(remotePlayer(message.uid), olderObjects.get(message.uid), message, alpha, scale);
+		}
+		for(int i = 0; i < newer.spearCount; i += 1) {
+			final SpearMessage message = newer.spears[i];
+			interpolate(spearsByUid.get(message.uid), olderObjects.get(message.uid), message, alpha, scale);
+		}
+	}
+	
+	private Player remotePlayer(final long uid) {
+		final Player player = playersByUid.get(uid);
+		return player != game.localPlayer() ? player : null;
+	}
+	
+	/**
+	 * @param from May be null for objects the older state doesn't have yet, they are placed at the newer one.
+	 */
+	private static void interpolate(final PhysicalObject object,
+									final ObjectMessage from,
+									final ObjectMessage to,
+									final float alpha,
+									final float scale) {
+		
+		if(object == null) {
+			return;
+		}
+		
+		if(from == null) {
+			object.x = to.x * scale;
+			object.y = to.y * scale;
+			object.velocityX = to.velocityX * scale;
+			object.velocityY = to.velocityY * scale;
+			return;
+		}
+		
+		object.x = (from.x + (to.x - from.x) * alpha) * scale;
+		object.y = (from.y + (to.y - from.y) * alpha) * scale;
+		object.velocityX = (from.velocityX + (to.velocityX - from.velocityX) * alpha) * scale;
+		object.velocityY = (from.velocityY + (to.velocityY - from.velocityY) * alpha) * scale;
+	}
+	
+	private static void extrapolate(final PhysicalObject object,
+									final ObjectMessage message,
+									final float seconds,
+									final float scale) {
+		
+		if(object == null) {
+			return;
+		}
+		
+		object.x = (message.x + message.velocityX * seconds) * scale;
+		object.y = (message.y + message.velocityY * seconds) * scale;
+		object.velocityX = message.velocityX * scale;
+		object.velocityY = message.velocityY * scale;
+	}
+	
+	private static double localTime() {
+		return System.nanoTime() / 1000000.0;
+	}
+	
 	private void setPlayerState(final Player player, final PlayerMessage message, final float scale) {
 		setObjectState(player, message, scale);
 		player.flip(message.flip);
@@ -0,0 +1,145 @@
+package com.company.minery.game.multiplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.company.minery.utils.kryonet.Connection;
+
+/**
+ * Bounded lock-free queue carrying network events from any number of network threads to the single thread that updates the
+ * game. Events are stored in preallocated slots, so offering and draining them does not allocate.
+ */
+public final class InboundQueue {
+	
+	public static final int EVENT_CONNECTED = 0;
+	public static final int EVENT_DISCONNECTED = 1;
+	public static final int EVENT_RECEIVED = 2;
+	
+	public static interface Handler {
+		public void handle(final int event,
+						   final Connection connection,
+						   final Object object);
+	}
+	
+	private final int capacity;
+	private final int mask;
+	
+	// A slot is free for the producer claiming position p when its sequence is p, and holds an event for the consumer at
+	// position p when its sequence is p + 1.
+	private final AtomicLongArray sequences;
+	private final int[] events;
+	private final Connection[] connections;
+	private final Object[] objects;
+	
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+	
+	private final AtomicLong droppedCount = new AtomicLong(); /**/ public long droppedCount() { return droppedCount.get(); }
+	
+	public InboundQueue(final int capacity) {
+		if(capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+		
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.sequences = new AtomicLongArray(capacity);
+		this.events = new int[capacity];
+		this.connections = new Connection[capacity];
+		this.objects = new Object[capacity];
+		
+		for(int i = 0; i < capacity; i += 1) {
+			sequences.set(i, i);
+		}
+	}
+	
+	/**
+	 * Safe to call from any thread. Returns false and counts the event as dropped if the queue is full.
+	 */
+	public boolean offer(final int event,
+						 final Connection connection,
+						 final Object object) {
+		
+		if(!tryOffer(event, connection, object)) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Like {@link #offer(int, Connection, Object)} but waits for room instead of dropping, for events that must not be lost.
+	 */
+	public void put(final int event,
+					final Connection connection,
+					final Object object) {
+		
+		while(!tryOffer(event, connection, object)) {
+			Thread.yield();
+		}
+	}
+	
+	private boolean tryOffer(final int event,
+							 final Connection connection,
+							 final Object object) {
+		
+		long position = tail.get();
+		
+		while(true) {
+			final int index = (int)(position & mask);
+			final long difference = sequences.get(index) - position;
+			
+			if(difference == 0) {
+				if(tail.compareAndSet(position, position + 1)) {
+					events[index] = event;
+					connections[index] = connection;
+					objects[index] = object;
+					sequences.lazySet(index, position + 1);
+					return true;
+				}
+				
+				position = tail.get();
+			}
+			else if(difference < 0) {
+				return false;
+			}
+			else {
+				position = tail.get();
+			}
+		}
+	}
+	
+	/**
+	 * Must only be called from the consuming thread. Hands at most one queue worth of events to the handler in the order they
+	 * were offered and returns how many were handled.
+	 */
+	public int drain(final Handler handler) {
+		final AtomicLongArray sequences = this.sequences;
+		
+		int count = 0;
+		
+		while(count < capacity) {
+			final long position = head;
+			final int index = (int)(position & mask);
+			
+			if(sequences.get(index) != position + 1) {
+				break;
+			}
+			
+			final int event = events[index];
+			final Connection connection = connections[index];
+			final Object object = objects[index];
+			
+			connections[index] = null;
+			objects[index] = null;
+			sequences.lazySet(index, position + capacity);
+			head = position + 1;
+			
+			handler.handle(event, connection, object);
+			count += 1;
+		}
+		
+		return count;
+	}
+	
+}
@@ -0,0 +1,69 @@
+package com.company.minery.game.multiplayer;
+
+import com.company.minery.game.player.Player.MovementDirection;
+
+/**
+ * Ring of the most recent impulses sent to the server along with the frame time they were simulated for, looked up by
+ * sequence to replay the ones the server has not applied yet.
+ */
+public final class InputHistory {
+	
+	private final int[] sequences;
+	private final MovementDirection[] movementDirections;
+	private final boolean[] jumps;
+	private final float[] deltaTimes;
+	
+	public InputHistory(final int capacity) {
+		this.sequences = new int[capacity];
+		this.movementDirections = new MovementDirection[capacity];
+		this.jumps = new boolean[capacity];
+		this.deltaTimes = new float[capacity];
+	}
+	
+	/**
+	 * @param sequence Has to be greater than 0.
+	 */
+	public void put(final int sequence,
+					final MovementDirection movementDirection,
+					final boolean jump,
+					final float deltaTime) {
+		
+		final int index = index(sequence);
+		
+		sequences[index] = sequence;
+		movementDirections[index] = movementDirection;
+		jumps[index] = jump;
+		deltaTimes[index] = deltaTime;
+	}
+	
+	/**
+	 * Whether the impulse is stored, false if it was never stored or has already been overwritten.
+	 */
+	public boolean contains(final int sequence) {
+		return sequence > 0 && sequences[index(sequence)] == sequence;
+	}
+	
+	public MovementDirection movementDirection(final int sequence) {
+		return movementDirections[index(sequence)];
+	}
+	
+	public boolean jump(final int sequence) {
+		return jumps[index(sequence)];
+	}
+	
+	public float deltaTime(final int sequence) {
+		return deltaTimes[index(sequence)];
+	}
+	
+	public void clear() {
+		for(int i = 0; i < sequences.length; i += 1) {
+			sequences[i] = 0;
+			movementDirections[i] = null;
+		}
+	}
+	
+	private int index(final int sequence) {
+		return (sequence & Integer.MAX_VALUE) % sequences.length;
+	}
+	
+}
@@ -0,0 +1,133 @@
+package com.company.minery.game.multiplayer;
+
+import com.company.minery.game.multiplayer.messages.WorldStateMessage;
+
+/**
+ * The most recent world states in sequence order, for rendering remote objects a little behind the server where two
+ * snapshots surround them. The delay adapts to the interval snapshots arrive at and to how much their arrival times jitter,
+ * so a late or lost snapshot usually still has a newer one behind it.
+ *
+ * Times are in milliseconds, snapshots carry the server's clock and arrivals the local one.
+ */
+public final class InterpolationBuffer {
+	
+	// Weights of a new sample in the running estimates, small enough for the render time to move smoothly.
+	private static final double OFFSET_WEIGHT = 0.05;
+	private static final double JITTER_WEIGHT = 0.1;
+	private static final double INTERVAL_WEIGHT = 0.1;
+	private static final double DELAY_WEIGHT = 0.05;
+	
+	private final WorldStateMessage[] snapshots;
+	private final double minDelay;
+	private final double maxDelay;
+	
+	private int first;
+	private int count;
+	
+	// Local arrival time minus server time, the one way latency plus the difference between the clocks.
+	private double clockOffset;
+	private double jitter;
+	private double interval;
+	private double delay;
+	
+	public InterpolationBuffer(final int capacity,
+							   final double minDelay,
+							   final double maxDelay) {
+		
+		this.snapshots = new WorldStateMessage[capacity];
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+		this.delay = minDelay;
+	}
+	
+	/**
+	 * Has to be called with increasing sequences, the oldest snapshot is dropped once the buffer is full.
+	 */
+	public void add(final WorldStateMessage snapshot,
+					final double arrivalTime) {
+		
+		final double offset = arrivalTime - snapshot.messageTime;
+		
+		if(count == 0) {
+			clockOffset = offset;
+		}
+		else {
+			final WorldStateMessage newest = snapshots[index(count - 1)];
+			
+			jitter += (Math.abs(offset - clockOffset) - jitter) * JITTER_WEIGHT;
+			clockOffset += (offset - clockOffset) * OFFSET_WEIGHT;
+			interval += (snapshot.messageTime - newest.messageTime - interval) * INTERVAL_WEIGHT;
+			
+			// One interval to have a newer snapshot at hand, twice the jitter for it to be there in time.
+			final double target = Math.max(minDelay, Math.min(maxDelay, interval + jitter * 2));
+			delay += (target - delay) * DELAY_WEIGHT;
+		}
+		
+		if(count == snapshots.length) {
+			snapshots[first] = null;
+			first = index(1);
+			count -= 1;
+		}
+		
+		snapshots[index(count)] = snapshot;
+		count += 1;
+	}
+	
+	/**
+	 * Server time to render remote objects at.
+	 */
+	public double renderTime(final double localTime) {
+		return localTime - clockOffset - delay;
+	}
+	
+	/**
+	 * Returns the newest snapshot taken at or before the given server time, or null if there is none.
+	 */
+	public WorldStateMessage older(final double time) {
+		for(int i = count - 1; i >= 0; i -= 1) {
+			final WorldStateMessage snapshot = snapshots[index(i)];
+			
+			if(snapshot.messageTime <= time) {
+				return snapshot;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns the oldest snapshot taken after the given server time, or null if there is none.
+	 */
+	public WorldStateMessage newer(final double time) {
+		for(int i = 0; i < count; i += 1) {
+			final WorldStateMessage snapshot = snapshots[index(i)];
+			
+			if(snapshot.messageTime > time) {
+				return snapshot;
+			}
+		}
+		
+		return null;
+	}
+	
+	public double delay() {
+		return delay;
+	}
+	
+	public void clear() {
+		for(int i = 0; i < snapshots.length; i += 1) {
+			snapshots[i] = null;
+		}
+		
+		first = 0;
+		count = 0;
+		jitter = 0;
+		interval = 0;
+		delay = minDelay;
+	}
+	
+	private int index(final int offset) {
+		return (first + offset) % snapshots.length;
+	}
+	
+}
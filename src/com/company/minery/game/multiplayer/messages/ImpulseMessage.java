@@ -13,4 +13,13 @@ public final class ImpulseMessage extends BaseMessage {
 	public float attackY;
 	public float scale;
 	
-}
\ No newline at end of file
+	// Counts up by one with every impulse a client sends, the server ignores impulses older than the last one it applied.
+	public int sequence;
+	
+	// Latest world state sequence the client has fully decoded, the server deltas against it.
+	public int acknowledgedSnapshot = WorldStateMessage.NO_BASELINE;
+	
+	// Bit i is set when the client also decoded the world state i + 1 sequences before the acknowledged one.
+	public int receivedMask;
+	
+}
@@ -1,9 +1,22 @@
 package com.company.minery.game.multiplayer.messages;
 
 public abstract class ObjectMessage {
+	
+	public static final int FIELD_X = 1 << 0;
+	public static final int FIELD_Y = 1 << 1;
+	public static final int FIELD_MOVEMENT_DIRECTION = 1 << 2;
+	public static final int FIELD_VELOCITY_X = 1 << 3;
+	public static final int FIELD_VELOCITY_Y = 1 << 4;
+	public static final int FIELD_REQUESTS_JUMP = 1 << 5;
+	public static final int FIELD_IS_JUMPING = 1 << 6;
+	
+	public static final int OBJECT_FIELDS = (1 << 7) - 1;
 
 	public long uid;
 	
+	// Which of the fields below are carried by this message, the rest is taken from the baseline snapshot.
+	public int changedFields;
+	
 	public float x;
 	public float y;
 	
@@ -2,6 +2,20 @@ package com.company.minery.game.multiplayer.messages;
 
 public final class PlayerMessage extends ObjectMessage {
 	
+	public static final int FIELD_FLIP = 1 << 7;
+	public static final int FIELD_REQUESTS_ATTACK = 1 << 8;
+	public static final int FIELD_HAS_WEAPON = 1 << 9;
+	public static final int FIELD_ATTACK_X = 1 << 10;
+	public static final int FIELD_ATTACK_Y = 1 << 11;
+	public static final int FIELD_IGNORE_OWN_SPEAR = 1 << 12;
+	public static final int FIELD_OWN_SPEAR_UID = 1 << 13;
+	public static final int FIELD_LAST_IMPULSE = 1 << 14;
+	
+	public static final int ALL_FIELDS = (1 << 15) - 1;
+	
+	// Only the low bits of lastImpulse are sent, clients restore the rest from the sequences they sent.
+	public static final int LAST_IMPULSE_BITS = 16;
+	
 	public boolean flip;
 	public boolean requestsAttack;
 	public boolean hasWeapon;
@@ -10,4 +24,7 @@ public final class PlayerMessage extends ObjectMessage {
 	public boolean ignoreOwnSpear;
 	public long ownSpearUid;
 	
+	// Sequence of the last impulse of this player the server applied before taking the snapshot.
+	public int lastImpulse;
+	
 }
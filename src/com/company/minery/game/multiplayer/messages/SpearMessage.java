@@ -1,6 +1,10 @@
 package com.company.minery.game.multiplayer.messages;
 
 public final class SpearMessage extends ObjectMessage {
+	
+	public static final int FIELD_LAST_ROTATION = 1 << 7;
+	
+	public static final int ALL_FIELDS = (1 << 8) - 1;
 
 	public float lastRotation;
 	
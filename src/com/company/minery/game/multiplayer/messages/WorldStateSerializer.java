@@ -0,0 +1,316 @@
+package com.company.minery.game.multiplayer.messages;
+
+import com.company.minery.utils.BitReader;
+import com.company.minery.utils.BitWriter;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Bit packed world state encoding. The header (time, sequence, baseline distance, skipped mask and object counts) is written
+ * as var ints, everything else goes through a bit stream: object uids as small per game ids sized to the largest id in the
+ * message, changed field masks, positions, velocities and rotations as fixed point values from the
+ * {@link WorldStateQuantizer} and every boolean as a single bit.
+ * 
+ * Instances keep their bit stream state in fields and must not be used by more than one thread at a time.
+ */
+public final class WorldStateSerializer extends Serializer<WorldStateMessage> {
+	
+	private static final int ID_BITS_BITS = 5;
+	private static final int PLAYER_FIELD_BITS = 15;
+	private static final int SPEAR_FIELD_BITS = 8;
+	private static final int MOVEMENT_DIRECTION_BITS = 2;
+	
+	private static final long NO_ID = -1;
+	
+	private final WorldStateQuantizer quantizer;
+	private final BitWriter bitWriter = new BitWriter();
+	private final BitReader bitReader = new BitReader();
+	
+	public WorldStateSerializer(final WorldStateQuantizer quantizer) {
+		this.quantizer = quantizer;
+	}
+	
+	@Override
+	public void write(final Kryo kryo,
+					  final Output output,
+					  final WorldStateMessage message) {
+		
+		final PlayerMessage[] players = message.players;
+		final SpearMessage[] spears = message.spears;
+		final long[] removedUids = message.removedUids;
+		final int playerCount = message.playerCount;
+		final int spearCount = message.spearCount;
+		final int removedCount = message.removedCount;
+		
+		output.writeLong(message.messageTime, true);
+		output.writeInt(message.sequence, true);
+		output.writeInt(message.baseline == WorldStateMessage.NO_BASELINE ? 0 : message.sequence - message.baseline, true);
+		output.writeInt(message.skippedMask, true);
+		output.writeInt(playerCount, true);
+		output.writeInt(spearCount, true);
+		output.writeInt(removedCount, true);
+		
+		long maxId = 0;
+		for(int i = 0; i < playerCount; i += 1) {
+			maxId = Math.max(maxId, Math.max(players[i].uid, players[i].ownSpearUid));
+		}
+		for(int i = 0; i < spearCount; i += 1) {
+			maxId = Math.max(maxId, spears[i].uid);
+		}
+		for(int i = 0; i < removedCount; i += 1) {
+			maxId = Math.max(maxId, removedUids[i]);
+		}
+		
+		if(maxId > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("uid out of range: " + maxId);
+		}
+		
+		final int idBits = WorldStateQuantizer.bitsFor((int) maxId);
+		final BitWriter bits = this.bitWriter;
+		
+		bits.begin(output);
+		bits.write(idBits, ID_BITS_BITS);
+		
+		for(int i = 0; i < playerCount; i += 1) {
+			writePlayer(bits, players[i], idBits);
+		}
+		for(int i = 0; i < spearCount; i += 1) {
+			writeSpear(bits, spears[i], idBits);
+		}
+		for(int i = 0; i < removedCount; i += 1) {
+			bits.write((int) removedUids[i], idBits);
+		}
+		
+		bits.end();
+	}
+	
+	@Override
+	public WorldStateMessage read(final Kryo kryo,
+								  final Input input,
+								  final Class<WorldStateMessage> type) {
+		
+		final WorldStateMessage message = new WorldStateMessage();
+		
+		message.messageTime = input.readLong(true);
+		message.sequence = input.readInt(true);
+		
+		final int baselineDistance = input.readInt(true);
+		message.baseline = baselineDistance == 0 ? WorldStateMessage.NO_BASELINE : message.sequence - baselineDistance;
+		message.skippedMask = input.readInt(true);
+		
+		final int playerCount = input.readInt(true);
+		final int spearCount = input.readInt(true);
+		final int removedCount = input.readInt(true);
+		message.setCounts(playerCount, spearCount, removedCount);
+		
+		final BitReader bits = this.bitReader;
+		
+		bits.begin(input);
+		final int idBits = bits.read(ID_BITS_BITS);
+		
+		for(int i = 0; i < playerCount; i += 1) {
+			readPlayer(bits, message.players[i], idBits);
+		}
+		for(int i = 0; i < spearCount; i += 1) {
+			readSpear(bits, message.spears[i], idBits);
+		}
+		for(int i = 0; i < removedCount; i += 1) {
+			message.removedUids[i] = bits.read(idBits);
+		}
+		
+		bits.end();
+		
+		return message;
+	}
+	
+	private void writePlayer(final BitWriter bits,
+							 final PlayerMessage message,
+							 final int idBits) {
+		
+		final int fields = message.changedFields;
+		
+		bits.write((int) message.uid, idBits);
+		writeFields(bits, fields, PlayerMessage.ALL_FIELDS, PLAYER_FIELD_BITS);
+		writeObject(bits, message, fields);
+		
+		if((fields & PlayerMessage.FIELD_FLIP) != 0) {
+			bits.writeBoolean(message.flip);
+		}
+		if((fields & PlayerMessage.FIELD_REQUESTS_ATTACK) != 0) {
+			bits.writeBoolean(message.requestsAttack);
+		}
+		if((fields & PlayerMessage.FIELD_HAS_WEAPON) != 0) {
+			bits.writeBoolean(message.hasWeapon);
+		}
+		if((fields & PlayerMessage.FIELD_ATTACK_X) != 0) {
+			bits.write(quantizer.quantizeX(message.attackX), quantizer.xBits());
+		}
+		if((fields & PlayerMessage.FIELD_ATTACK_Y) != 0) {
+			bits.write(quantizer.quantizeY(message.attackY), quantizer.yBits());
+		}
+		if((fields & PlayerMessage.FIELD_IGNORE_OWN_SPEAR) != 0) {
+			bits.writeBoolean(message.ignoreOwnSpear);
+		}
+		if((fields & PlayerMessage.FIELD_OWN_SPEAR_UID) != 0) {
+			final boolean hasSpear = message.ownSpearUid != NO_ID;
+			bits.writeBoolean(hasSpear);
+			
+			if(hasSpear) {
+				bits.write((int) message.ownSpearUid, idBits);
+			}
+		}
+		if((fields & PlayerMessage.FIELD_LAST_IMPULSE) != 0) {
+			bits.write(message.lastImpulse, PlayerMessage.LAST_IMPULSE_BITS);
+		}
+	}
+	
+	private PlayerMessage readPlayer(final BitReader bits,
+									 final PlayerMessage message,
+									 final int idBits) {
+		
+		message.uid = bits.read(idBits);
+		
+		final int fields = readFields(bits, PlayerMessage.ALL_FIELDS, PLAYER_FIELD_BITS);
+		message.changedFields = fields;
+		readObject(bits, message, fields);
+		
+		if((fields & PlayerMessage.FIELD_FLIP) != 0) {
+			message.flip = bits.readBoolean();
+		}
+		if((fields & PlayerMessage.FIELD_REQUESTS_ATTACK) != 0) {
+			message.requestsAttack = bits.readBoolean();
+		}
+		if((fields & PlayerMessage.FIELD_HAS_WEAPON) != 0) {
+			message.hasWeapon = bits.readBoolean();
+		}
+		if((fields & PlayerMessage.FIELD_ATTACK_X) != 0) {
+			message.attackX = quantizer.dequantizeX(bits.read(quantizer.xBits()));
+		}
+		if((fields & PlayerMessage.FIELD_ATTACK_Y) != 0) {
+			message.attackY = quantizer.dequantizeY(bits.read(quantizer.yBits()));
+		}
+		if((fields & PlayerMessage.FIELD_IGNORE_OWN_SPEAR) != 0) {
+			message.ignoreOwnSpear = bits.readBoolean();
+		}
+		if((fields & PlayerMessage.FIELD_OWN_SPEAR_UID) != 0) {
+			message.ownSpearUid = bits.readBoolean() ? bits.read(idBits) : NO_ID;
+		}
+		if((fields & PlayerMessage.FIELD_LAST_IMPULSE) != 0) {
+			message.lastImpulse = bits.read(PlayerMessage.LAST_IMPULSE_BITS);
+		}
+		
+		return message;
+	}
+	
+	private void writeSpear(final BitWriter bits,
+							final SpearMessage message,
+							final int idBits) {
+		
+		final int fields = message.changedFields;
+		
+		bits.write((int) message.uid, idBits);
+		writeFields(bits, fields, SpearMessage.ALL_FIELDS, SPEAR_FIELD_BITS);
+		writeObject(bits, message, fields);
+		
+		if((fields & SpearMessage.FIELD_LAST_ROTATION) != 0) {
+			bits.write(quantizer.quantizeRotation(message.lastRotation), WorldStateQuantizer.ROTATION_BITS);
+		}
+	}
+	
+	private SpearMessage readSpear(final BitReader bits,
+								   final SpearMessage message,
+								   final int idBits) {
+		
+		message.uid = bits.read(idBits);
+		
+		final int fields = readFields(bits, SpearMessage.ALL_FIELDS, SPEAR_FIELD_BITS);
+		message.changedFields = fields;
+		readObject(bits, message, fields);
+		
+		if((fields & SpearMessage.FIELD_LAST_ROTATION) != 0) {
+			message.lastRotation = quantizer.dequantizeRotation(bits.read(WorldStateQuantizer.ROTATION_BITS));
+		}
+		
+		return message;
+	}
+	
+	private void writeObject(final BitWriter bits,
+							 final ObjectMessage message,
+							 final int fields) {
+		
+		if((fields & ObjectMessage.FIELD_X) != 0) {
+			bits.write(quantizer.quantizeX(message.x), quantizer.xBits());
+		}
+		if((fields & ObjectMessage.FIELD_Y) != 0) {
+			bits.write(quantizer.quantizeY(message.y), quantizer.yBits());
+		}
+		if((fields & ObjectMessage.FIELD_MOVEMENT_DIRECTION) != 0) {
+			bits.write(message.movementDirection, MOVEMENT_DIRECTION_BITS);
+		}
+		if((fields & ObjectMessage.FIELD_VELOCITY_X) != 0) {
+			bits.write(quantizer.quantizeVelocityX(message.velocityX), quantizer.velocityBits());
+		}
+		if((fields & ObjectMessage.FIELD_VELOCITY_Y) != 0) {
+			bits.write(quantizer.quantizeVelocityY(message.velocityY), quantizer.velocityBits());
+		}
+		if((fields & ObjectMessage.FIELD_REQUESTS_JUMP) != 0) {
+			bits.writeBoolean(message.requestsJump);
+		}
+		if((fields & ObjectMessage.FIELD_IS_JUMPING) != 0) {
+			bits.writeBoolean(message.isJumping);
+		}
+	}
+	
+	private void readObject(final BitReader bits,
+							final ObjectMessage message,
+							final int fields) {
+		
+		if((fields & ObjectMessage.FIELD_X) != 0) {
+			message.x = quantizer.dequantizeX(bits.read(quantizer.xBits()));
+		}
+		if((fields & ObjectMessage.FIELD_Y) != 0) {
+			message.y = quantizer.dequantizeY(bits.read(quantizer.yBits()));
+		}
+		if((fields & ObjectMessage.FIELD_MOVEMENT_DIRECTION) != 0) {
+			message.movementDirection = (byte) bits.read(MOVEMENT_DIRECTION_BITS);
+		}
+		if((fields & ObjectMessage.FIELD_VELOCITY_X) != 0) {
+			message.velocityX = quantizer.dequantizeVelocityX(bits.read(quantizer.velocityBits()));
+		}
+		if((fields & ObjectMessage.FIELD_VELOCITY_Y) != 0) {
+			message.velocityY = quantizer.dequantizeVelocityY(bits.read(quantizer.velocityBits()));
+		}
+		if((fields & ObjectMessage.FIELD_REQUESTS_JUMP) != 0) {
+			message.requestsJump = bits.readBoolean();
+		}
+		if((fields & ObjectMessage.FIELD_IS_JUMPING) != 0) {
+			message.isJumping = bits.readBoolean();
+		}
+	}
+	
+	/**
+	 * A single set bit stands for all fields, which is what full states and new objects carry.
+	 */
+	private static void writeFields(final BitWriter bits,
+									final int fields,
+									final int allFields,
+									final int fieldBits) {
+		
+		final boolean all = fields == allFields;
+		bits.writeBoolean(all);
+		
+		if(!all) {
+			bits.write(fields, fieldBits);
+		}
+	}
+	
+	private static int readFields(final BitReader bits,
+								  final int allFields,
+								  final int fieldBits) {
+		
+		return bits.readBoolean() ? allFields : bits.read(fieldBits);
+	}
+	
+}
@@ -8,6 +8,9 @@ public abstract class PhysicalObject {
 	private static long uidCounter = Long.MIN_VALUE;
 	
 	public final long uid;
+	
+	// Last snapshot generation that carried this object, see GameClient.
+	public int snapshotGeneration;
 	public MovementDirection movementDirection = MovementDirection.Idle;
 	
 	public float x;
@@ -0,0 +1,49 @@
+package com.company.minery.utils;
+
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+ * Reads values written by {@link BitWriter}.
+ */
+public final class BitReader {
+	
+	private Input input;
+	private long bits;
+	private int bitCount;
+	
+	public void begin(final Input input) {
+		this.input = input;
+		this.bits = 0;
+		this.bitCount = 0;
+	}
+	
+	/**
+	 * @param count Number of bits to read, 0 to 32.
+	 */
+	public int read(final int count) {
+		while(bitCount < count) {
+			bits |= (input.readByte() & 0xFFL) << bitCount;
+			bitCount += 8;
+		}
+		
+		final int value = (int)(bits & BitWriter.mask(count));
+		bits >>>= count;
+		bitCount -= count;
+		
+		return value;
+	}
+	
+	public boolean readBoolean() {
+		return read(1) != 0;
+	}
+	
+	/**
+	 * Drops the padding bits of the last byte.
+	 */
+	public void end() {
+		input = null;
+		bits = 0;
+		bitCount = 0;
+	}
+	
+}
@@ -66,6 +66,7 @@ public class Client extends Connection implements EndPoint {
 	private Selector selector;
 	private int emptySelects;
 	private volatile boolean tcpRegistered, udpRegistered;
+	private boolean udpConnectionIDPrefix, udpBatching;
 	private Object tcpRegistrationLock = new Object();
 	private Object udpRegistrationLock = new Object();
 	private volatile boolean shutdown;
@@ -118,6 +119,18 @@ public class Client extends Connection implements EndPoint {
 		}
 	}
 
+	/** If true, every datagram sent to the server starts with this client's connection ID, see
+	 * {@link Server#setUdpConnectionIDPrefix(boolean)}. Takes effect on the next connect. */
+	public void setUdpConnectionIDPrefix (boolean udpConnectionIDPrefix) {
+		this.udpConnectionIDPrefix = udpConnectionIDPrefix;
+	}
+
+	/** If true, every datagram from the server may hold several objects, see {@link Server#setUdpBatching(int)}. Client and server
+	 * have to agree on this. Takes effect on the next connect. */
+	public void setUdpBatching (boolean udpBatching) {
+		this.udpBatching = udpBatching;
+	}
+
 	public void setDiscoveryHandler (ClientDiscoveryHandler newDiscoveryHandler) {
 		discoveryHandler = newDiscoveryHandler;
 	}
@@ -171,7 +184,11 @@ public class Client extends Connection implements EndPoint {
 		}
 		id = -1;
 		try {
-			if (udpPort != -1) udp = new UdpConnection(serialization, tcp.readBuffer.capacity());
+			if (udpPort != -1) {
+				udp = new UdpConnection(serialization, tcp.readBuffer.capacity());
+				udp.prefixWrites = udpConnectionIDPrefix;
+				udp.batchReads = udpBatching;
+			}
 
 			long endTime;
 			synchronized (updateLock) {
@@ -256,10 +273,11 @@ public class Client extends Connection implements EndPoint {
 			emptySelects++;
 			if (emptySelects == 100) {
 				emptySelects = 0;
-				// NIO freaks and returns immediately with 0 sometimes, so try to keep from hogging the CPU.
+				// NIO freaks and returns immediately with 0 sometimes, so try to keep from hogging the CPU. A caller polling with a
+				// zero timeout paces itself and may be polling many clients from one thread.
 				long elapsedTime = System.currentTimeMillis() - startTime;
 				try {
-					if (elapsedTime < 25) Thread.sleep(25 - elapsedTime);
+					if (timeout > 0 && elapsedTime < 25) Thread.sleep(25 - elapsedTime);
 				} catch (InterruptedException ex) {
 				}
 			}
@@ -321,16 +339,20 @@ public class Client extends Connection implements EndPoint {
 								}
 							} else {
 								if (udp.readFromAddress() == null) continue;
-								Object object = udp.readObject(this);
-								if (object == null) continue;
-								if (DEBUG) {
-									String objectString = object == null ? "null" : object.getClass().getSimpleName();
-									debug("kryonet", this + " received UDP: " + objectString);
+								// A batched datagram holds several objects, others one.
+								while (true) {
+									Object object = udp.readObject(this);
+									if (object == null) break;
+									if (DEBUG) {
+										String objectString = object == null ? "null" : object.getClass().getSimpleName();
+										debug("kryonet", this + " received UDP: " + objectString);
+									}
+									notifyReceived(object);
+									if (!udp.batchReads) break;
 								}
-								notifyReceived(object);
 							}
 						}
-						if ((ops & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) tcp.writeOperation();
+						if ((ops & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) tcp.writeOperation(this);
 					} catch (CancelledKeyException ignored) {
 						// Connection is closed.
 					}
@@ -455,6 +477,7 @@ public class Client extends Connection implements EndPoint {
 
 	private void broadcast (int udpPort, DatagramSocket socket) throws IOException {
 		ByteBuffer dataBuffer = ByteBuffer.allocate(64);
+		if (udpConnectionIDPrefix) dataBuffer.putInt(0); // Not connected, no ID.
 		serialization.write(null, dataBuffer, new DiscoverHost());
 		dataBuffer.flip();
 		byte[] data = new byte[dataBuffer.limit()];
@@ -33,7 +33,9 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.company.minery.utils.kryonet.FrameworkMessage.Ping;
 import com.esotericsoftware.kryo.Kryo;
@@ -49,13 +51,20 @@ public class Connection {
 	EndPoint endPoint;
 	TcpConnection tcp;
 	UdpConnection udp;
-	InetSocketAddress udpRemoteAddress;
+	volatile InetSocketAddress udpRemoteAddress;
 	private Listener[] listeners = {};
 	private Object listenerLock = new Object();
 	private int lastPingID;
 	private long lastPingSendTime;
-	private int returnTripTime;
+	// sendTCP serializes right away, so the same ping is sent every time.
+	private final Ping ping = new Ping();
+	private volatile int returnTripTime;
 	volatile boolean isConnected;
+	// Objects sent with UDP batching wait here for the next flush, see Server#setUdpBatching(int).
+	ByteBuffer udpBatch;
+	final Object udpBatchLock = new Object();
+	// Set when a batch didn't fit the UDP socket buffer, until the next call to wasUdpBufferFull().
+	final AtomicBoolean udpBufferFull = new AtomicBoolean();
 
 	protected Connection () {
 	}
@@ -64,6 +73,12 @@ public class Connection {
 		tcp = new TcpConnection(serialization, writeBufferSize, objectBufferSize);
 	}
 
+	/** @param objectBufferPool May be null to allocate the read buffer on the heap. */
+	void initialize (Serialization serialization, int writeBufferSize, int objectBufferSize, BufferPool chunkPool,
+		BufferPool objectBufferPool) {
+		tcp = new TcpConnection(serialization, writeBufferSize, objectBufferSize, chunkPool, objectBufferPool);
+	}
+
 	/** Returns the server assigned ID. Will return -1 if this connection has never been connected or the last assigned ID if this
 	 * connection has been disconnected. */
 	public int getID () {
@@ -104,6 +119,36 @@ public class Connection {
 		}
 	}
 
+	/** Sends an object that a newer one will replace soon, such as a snapshot of changing state, using TCP. While the connection
+	 * is {@link #isCongested() congested} the object is dropped instead of being queued behind older data, which gives the queue
+	 * a chance to drain.
+	 * @return The number of bytes sent, zero if the object was dropped. */
+	public int sendTCPDroppable (Object object) {
+		if (tcp.isCongested()) {
+			if (TRACE) trace("kryonet", this + " dropped TCP: " + (object == null ? "null" : object.getClass().getSimpleName()));
+			return 0;
+		}
+		return sendTCP(object);
+	}
+
+	/** Sends already serialized bytes using TCP.
+	 * @return The number of bytes sent. */
+	int sendTCP (ByteBuffer data) {
+		try {
+			int length = tcp.send(this, data);
+			if (TRACE) trace("kryonet", this + " sent TCP: " + data.remaining() + " serialized bytes (" + length + ")");
+			return length;
+		} catch (IOException ex) {
+			if (DEBUG) debug("kryonet", "Unable to send TCP with connection: " + this, ex);
+			close();
+			return 0;
+		} catch (KryoNetException ex) {
+			if (ERROR) error("kryonet", "Unable to send TCP with connection: " + this, ex);
+			close();
+			return 0;
+		}
+	}
+
 	/** Sends the object over the network using UDP.
 	 * @return The number of bytes sent.
 	 * @see Kryo#register(Class, com.esotericsoftware.kryo.Serializer)
@@ -143,6 +188,39 @@ public class Connection {
 		}
 	}
 
+	/** Sends already serialized bytes using UDP.
+	 * @return The number of bytes sent, or -1 if the socket buffer was full.
+	 * @throws IllegalStateException if this connection was not opened with both TCP and UDP. */
+	int sendUDP (ByteBuffer data) {
+		SocketAddress address = udpRemoteAddress;
+		if (address == null && udp != null) address = udp.connectedAddress;
+		if (address == null && isConnected) throw new IllegalStateException("Connection is not connected via UDP.");
+
+		try {
+			if (address == null) throw new SocketException("Connection is closed.");
+
+			int length = udp.send(this, data, address);
+			if (TRACE) trace("kryonet", this + " sent UDP: " + data.remaining() + " serialized bytes (" + length + ")");
+			return length;
+		} catch (IOException ex) {
+			if (DEBUG) debug("kryonet", "Unable to send UDP with connection: " + this, ex);
+			close();
+			return 0;
+		}
+	}
+
+	/** Sends the objects batched with UDP batching since the last flush, see {@link Server#setUdpBatching(int)}. */
+	void flushUDP () {
+		SocketAddress address = udpRemoteAddress;
+		if (address == null || udp == null) return;
+		try {
+			udp.flush(this, address);
+		} catch (IOException ex) {
+			if (DEBUG) debug("kryonet", "Unable to send UDP with connection: " + this, ex);
+			close();
+		}
+	}
+
 	public void close () {
 		boolean wasConnected = isConnected;
 		isConnected = false;
@@ -159,7 +237,7 @@ public class Connection {
 	 * {@link #getReturnTripTime() return trip time}. When the connection receives a {@link FrameworkMessage.Ping} object with
 	 * {@link Ping#isReply isReply} set to true, the new return trip time is available. */
 	public void updateReturnTripTime () {
-		Ping ping = new Ping();
+		Ping ping = this.ping;
 		ping.id = lastPingID++;
 		lastPingSendTime = System.currentTimeMillis();
 		sendTCP(ping);
@@ -253,6 +331,18 @@ public class Connection {
 		}
 	}
 
+	void notifyCongested () {
+		Listener[] listeners = this.listeners;
+		for (int i = 0, n = listeners.length; i < n; i++)
+			listeners[i].congested(this);
+	}
+
+	void notifyDrained () {
+		Listener[] listeners = this.listeners;
+		for (int i = 0, n = listeners.length; i < n; i++)
+			listeners[i].drained(this);
+	}
+
 	void notifyReceived (Object object) {
 		if (object instanceof Ping) {
 			Ping ping = (Ping)object;
@@ -309,14 +399,36 @@ public class Connection {
 		this.name = name;
 	}
 
+	/** Returns true if a batch of objects sent to this connection with UDP batching could not be sent, because the UDP socket
+	 * buffer was full, since the last call. Without batching {@link #sendUDP(Object)} returns -1 instead. This method is thread
+	 * safe. */
+	public boolean wasUdpBufferFull () {
+		return udpBufferFull.get() && udpBufferFull.getAndSet(false);
+	}
+
 	/** Returns the number of bytes that are waiting to be written to the TCP socket, if any. */
 	public int getTcpWriteBufferSize () {
-		return tcp.writeBuffer.position();
+		return tcp.getQueuedBytes();
+	}
+
+	/** Sets when {@link Listener#congested(Connection)} and {@link Listener#drained(Connection)} are called. The connection is
+	 * congested from when more than highWatermark bytes wait for the TCP socket until no more than lowWatermark do. Defaults to a
+	 * half and a quarter of the write buffer size. */
+	public void setTcpWatermarks (int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0 || highWatermark < lowWatermark)
+			throw new IllegalArgumentException("Invalid watermarks, low: " + lowWatermark + ", high: " + highWatermark);
+		tcp.lowWatermark = lowWatermark;
+		tcp.highWatermark = highWatermark;
+	}
+
+	/** @see #setTcpWatermarks(int, int) */
+	public boolean isCongested () {
+		return tcp.isCongested();
 	}
 
 	/** @see #setIdleThreshold(float) */
 	public boolean isIdle () {
-		return tcp.writeBuffer.position() / (float)tcp.writeBuffer.capacity() < tcp.idleThreshold;
+		return tcp.getQueuedBytes() / (float)tcp.maxQueuedBytes < tcp.idleThreshold;
 	}
 
 	/** If the percent of the TCP write buffer that is filled is less than the specified threshold,
@@ -32,33 +32,71 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 
 /** @author Nathan Sweet <misc@n4te.com> */
 class TcpConnection {
 	static private final int IPTOS_LOWDELAY = 0x10;
+	static private final int minChunkSize = 4096;
 
 	SocketChannel socketChannel;
 	int keepAliveMillis = 8000;
-	final ByteBuffer readBuffer, writeBuffer;
+	final ByteBuffer readBuffer;
 	boolean bufferPositionFix;
 	int timeoutMillis = 12000;
 	float idleThreshold = 0.1f;
+	final int maxQueuedBytes;
+	int lowWatermark, highWatermark;
 
 	final Serialization serialization;
 	private SelectionKey selectionKey;
 	private volatile long lastWriteTime, lastReadTime;
 	private int currentObjectLength;
 	private final Object writeLock = new Object();
+	// Bytes waiting for the socket, in chunks that are only taken from the pool while they hold some. The bytes of a chunk that
+	// were not written yet are between its position and limit.
+	private final BufferPool chunkPool, readPool;
+	private ByteBuffer[] chunks = new ByteBuffer[4];
+	private int chunkCount;
+	private volatile int queuedBytes;
+	private volatile boolean congested;
+	private int appendPosition, appendLimit;
+	private final ByteBuffer[] gather = new ByteBuffer[2];
+	private boolean freed;
 
 	public TcpConnection (Serialization serialization, int writeBufferSize, int objectBufferSize) {
+		this(serialization, writeBufferSize, objectBufferSize, new BufferPool(chunkSize(serialization, objectBufferSize),
+			Math.max(1, writeBufferSize / chunkSize(serialization, objectBufferSize)), false), null);
+	}
+
+	/** @param writeBufferSize The most bytes that may wait for the socket before the connection is closed.
+	 * @param chunkPool Gives out the chunks queued bytes are kept in, at least {@link #chunkSize(Serialization, int)} bytes each.
+	 *           May be shared with other connections.
+	 * @param readPool May be null to allocate the read buffer on the heap. Otherwise the read buffer is taken from the pool.
+	 *           Chunks and the read buffer have to be given back with {@link #free()}. */
+	public TcpConnection (Serialization serialization, int writeBufferSize, int objectBufferSize, BufferPool chunkPool,
+		BufferPool readPool) {
 		this.serialization = serialization;
-		writeBuffer = ByteBuffer.allocate(writeBufferSize);
-		readBuffer = ByteBuffer.allocate(objectBufferSize);
+		this.chunkPool = chunkPool;
+		this.readPool = readPool;
+		if (chunkPool.bufferSize < chunkSize(serialization, objectBufferSize))
+			throw new IllegalArgumentException("Chunks are too small for objectBufferSize: " + chunkPool.bufferSize);
+		maxQueuedBytes = writeBufferSize;
+		highWatermark = writeBufferSize / 2;
+		lowWatermark = writeBufferSize / 4;
+		readBuffer = readPool != null ? readPool.obtain() : ByteBuffer.allocate(objectBufferSize);
 		readBuffer.flip();
+		gather[0] = readPool != null ? ByteBuffer.allocateDirect(serialization.getLengthLength()) : ByteBuffer
+			.allocate(serialization.getLengthLength());
+	}
+
+	/** Returns the chunk size needed to serialize any object that fits the object buffer into a single chunk. */
+	static int chunkSize (Serialization serialization, int objectBufferSize) {
+		return Math.max(minChunkSize, objectBufferSize + serialization.getLengthLength());
 	}
 
 	public SelectionKey accept (Selector selector, SocketChannel socketChannel) throws IOException {
-		writeBuffer.clear();
+		clearWriteQueue();
 		readBuffer.clear();
 		readBuffer.flip();
 		currentObjectLength = 0;
@@ -86,7 +124,7 @@ class TcpConnection {
 
 	public void connect (Selector selector, SocketAddress remoteAddress, int timeout) throws IOException {
 		close();
-		writeBuffer.clear();
+		clearWriteQueue();
 		readBuffer.clear();
 		readBuffer.flip();
 		currentObjectLength = 0;
@@ -170,32 +208,97 @@ class TcpConnection {
 		return object;
 	}
 
-	public void writeOperation () throws IOException {
+	public void writeOperation (Connection connection) throws IOException {
 		synchronized (writeLock) {
+			if (freed) throw new SocketException("Connection is closed.");
 			if (writeToSocket()) {
 				// Write successful, clear OP_WRITE.
 				selectionKey.interestOps(SelectionKey.OP_READ);
 			}
+			updateCongestion(connection);
 			lastWriteTime = System.currentTimeMillis();
 		}
 	}
 
+	/** Writes as many queued chunks as the socket takes in one gathering write and gives written chunks back to the pool.
+	 * @return True if nothing is left queued. */
 	private boolean writeToSocket () throws IOException {
 		SocketChannel socketChannel = this.socketChannel;
 		if (socketChannel == null) throw new SocketException("Connection is closed.");
 
-		ByteBuffer buffer = writeBuffer;
-		buffer.flip();
-		while (buffer.hasRemaining()) {
+		while (chunkCount > 0) {
+			long written;
 			if (bufferPositionFix) {
-				buffer.compact();
-				buffer.flip();
+				ByteBuffer chunk = chunks[0];
+				chunk.compact();
+				chunk.flip();
+				written = socketChannel.write(chunk);
+			} else
+				written = socketChannel.write(chunks, 0, chunkCount);
+			queuedBytes -= written;
+
+			int done = 0;
+			while (done < chunkCount && !chunks[done].hasRemaining())
+				chunkPool.free(chunks[done++]);
+			if (done > 0) {
+				System.arraycopy(chunks, done, chunks, 0, chunkCount - done);
+				Arrays.fill(chunks, chunkCount - done, chunkCount, null);
+				chunkCount -= done;
 			}
-			if (socketChannel.write(buffer) == 0) break;
+			if (written == 0) break;
+		}
+		return chunkCount == 0;
+	}
+
+	/** Returns the last chunk, ready to be written to after its queued bytes, or a new one if the last has fewer than room bytes
+	 * free. {@link #endAppend(ByteBuffer)} has to be called afterward. */
+	private ByteBuffer beginAppend (int room) {
+		if (chunkCount > 0) {
+			ByteBuffer chunk = chunks[chunkCount - 1];
+			if (chunk.capacity() - chunk.limit() >= room) {
+				appendPosition = chunk.position();
+				appendLimit = chunk.limit();
+				chunk.limit(chunk.capacity());
+				chunk.position(appendLimit);
+				return chunk;
+			}
+		}
+		ByteBuffer chunk = chunkPool.obtain();
+		if (chunkCount == chunks.length) chunks = Arrays.copyOf(chunks, chunkCount * 2);
+		chunks[chunkCount++] = chunk;
+		appendPosition = appendLimit = 0;
+		return chunk;
+	}
+
+	private void endAppend (ByteBuffer chunk) {
+		int end = chunk.position();
+		queuedBytes += end - appendLimit;
+		chunk.limit(end);
+		chunk.position(appendPosition);
+	}
+
+	/** Queues the remaining bytes, spread over as many chunks as needed. The position of the bytes is left at their limit. */
+	private void appendBytes (ByteBuffer bytes) {
+		while (bytes.hasRemaining()) {
+			ByteBuffer chunk = beginAppend(1);
+			int limit = bytes.limit();
+			if (bytes.remaining() > chunk.remaining()) bytes.limit(bytes.position() + chunk.remaining());
+			chunk.put(bytes);
+			bytes.limit(limit);
+			endAppend(chunk);
 		}
-		buffer.compact();
+	}
 
-		return buffer.position() == 0;
+	private void clearWriteQueue () {
+		synchronized (writeLock) {
+			for (int i = 0; i < chunkCount; i++) {
+				chunkPool.free(chunks[i]);
+				chunks[i] = null;
+			}
+			chunkCount = 0;
+			queuedBytes = 0;
+			congested = false;
+		}
 	}
 
 	/** This method is thread safe. */
@@ -203,46 +306,128 @@ class TcpConnection {
 		SocketChannel socketChannel = this.socketChannel;
 		if (socketChannel == null) throw new SocketException("Connection is closed.");
 		synchronized (writeLock) {
-			// Leave room for length.
-			int start = writeBuffer.position();
-			int lengthLength = serialization.getLengthLength();
-			writeBuffer.position(writeBuffer.position() + lengthLength);
+			if (freed) throw new SocketException("Connection is closed.");
+			// Not chunkCount, a serialization error can leave an empty chunk queued.
+			boolean wasEmpty = queuedBytes == 0;
 
-			// Write data.
+			// Objects are serialized straight into a chunk, so the last one is used only if any object fits behind its bytes.
+			int lengthLength = serialization.getLengthLength();
+			ByteBuffer chunk = beginAppend(readBuffer.capacity() + lengthLength);
+			int start = chunk.position();
 			try {
-				serialization.write(connection, writeBuffer, object);
-			} catch (KryoNetException ex) {
-				throw new KryoNetException("Error serializing object of type: " + object.getClass().getName(), ex);
+				// Leave room for length.
+				chunk.position(start + lengthLength);
+
+				// Write data.
+				try {
+					serialization.write(connection, chunk, object);
+				} catch (KryoNetException ex) {
+					throw new KryoNetException("Error serializing object of type: " + object.getClass().getName(), ex);
+				}
+				int end = chunk.position();
+
+				// Write data length.
+				chunk.position(start);
+				serialization.writeLength(chunk, end - lengthLength - start);
+				chunk.position(end);
+			} catch (RuntimeException ex) {
+				chunk.position(start);
+				throw ex;
+			} finally {
+				endAppend(chunk);
 			}
-			int end = writeBuffer.position();
-
-			// Write data length.
-			writeBuffer.position(start);
-			serialization.writeLength(writeBuffer, end - lengthLength - start);
-			writeBuffer.position(end);
+			int length = chunk.limit() - start;
 
 			// Write to socket if no data was queued.
-			if (start == 0 && !writeToSocket()) {
-				// A partial write, set OP_WRITE to be notified when more writing can occur.
-				selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-			} else {
-				// Full write, wake up selector so idle event will be fired.
-				selectionKey.selector().wakeup();
-			}
+			if (wasEmpty) writeToSocket();
+			return queued(connection, wasEmpty, length);
+		}
+	}
 
-			if (DEBUG || TRACE) {
-				float percentage = writeBuffer.position() / (float)writeBuffer.capacity();
-				if (DEBUG && percentage > 0.75f)
-					debug("kryonet", connection + " TCP write buffer is approaching capacity: " + percentage + "%");
-				else if (TRACE && percentage > 0.25f)
-					trace("kryonet", connection + " TCP write buffer utilization: " + percentage + "%");
+	/** Queues bytes that were serialized once for many connections, see {@link Server#sendToAllTCP(Object)}. The data's position
+	 * is left unchanged. This method is thread safe. */
+	public int send (Connection connection, ByteBuffer data) throws IOException {
+		SocketChannel socketChannel = this.socketChannel;
+		if (socketChannel == null) throw new SocketException("Connection is closed.");
+		synchronized (writeLock) {
+			if (freed) throw new SocketException("Connection is closed.");
+			boolean wasEmpty = queuedBytes == 0;
+			int length = data.remaining();
+			int dataStart = data.position();
+
+			ByteBuffer header = gather[0];
+			header.clear();
+			serialization.writeLength(header, length);
+			header.flip();
+			if (wasEmpty && !bufferPositionFix) {
+				// Nothing is queued, gather the length and the data straight from their buffers and only queue what is left.
+				gather[1] = data;
+				try {
+					socketChannel.write(gather);
+				} finally {
+					gather[1] = null;
+				}
 			}
+			appendBytes(header);
+			appendBytes(data);
+			data.position(dataStart);
 
-			lastWriteTime = System.currentTimeMillis();
-			return end - start;
+			if (wasEmpty && bufferPositionFix) writeToSocket();
+			return queued(connection, wasEmpty, header.limit() + length);
 		}
 	}
 
+	/** Called with the write lock held after length bytes were written to the socket or queued.
+	 * @param wasEmpty True if nothing was queued before, in which case the bytes were already offered to the socket. */
+	private int queued (Connection connection, boolean wasEmpty, int length) throws IOException {
+		if (queuedBytes > maxQueuedBytes)
+			throw new KryoNetException("TCP write queue is full, " + queuedBytes + " bytes are waiting for the socket.");
+
+		if (wasEmpty && queuedBytes > 0) {
+			// A partial write, set OP_WRITE to be notified when more writing can occur.
+			selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} else {
+			// Full write, wake up selector so idle event will be fired.
+			selectionKey.selector().wakeup();
+		}
+		updateCongestion(connection);
+
+		if (DEBUG || TRACE) {
+			float percentage = queuedBytes / (float)maxQueuedBytes;
+			if (DEBUG && percentage > 0.75f)
+				debug("kryonet", connection + " TCP write queue is approaching capacity: " + percentage + "%");
+			else if (TRACE && percentage > 0.25f)
+				trace("kryonet", connection + " TCP write queue utilization: " + percentage + "%");
+		}
+
+		lastWriteTime = System.currentTimeMillis();
+		return length;
+	}
+
+	/** Called with the write lock held, so listeners are notified of congestion changes in order. */
+	private void updateCongestion (Connection connection) {
+		if (!congested) {
+			if (queuedBytes <= highWatermark) return;
+			congested = true;
+			if (DEBUG) debug("kryonet", connection + " TCP write queue is congested: " + queuedBytes + " bytes");
+			connection.notifyCongested();
+		} else if (queuedBytes <= lowWatermark) {
+			congested = false;
+			if (DEBUG) debug("kryonet", connection + " TCP write queue drained: " + queuedBytes + " bytes");
+			connection.notifyDrained();
+		}
+	}
+
+	/** Returns the number of bytes waiting to be written to the socket. */
+	int getQueuedBytes () {
+		return queuedBytes;
+	}
+
+	/** True from when more than the high watermark of bytes are queued until no more than the low watermark are. */
+	boolean isCongested () {
+		return congested;
+	}
+
 	public void close () {
 		try {
 			if (socketChannel != null) {
@@ -255,6 +440,17 @@ class TcpConnection {
 		}
 	}
 
+	/** Gives the queued chunks and a pooled read buffer back, nothing can be sent or read afterward. Must be called after
+	 * {@link #close()} by the thread that reads from this connection, so the read buffer isn't in use. */
+	void free () {
+		synchronized (writeLock) {
+			if (freed) return;
+			freed = true;
+			clearWriteQueue();
+			if (readPool != null) readPool.free(readBuffer);
+		}
+	}
+
 	public boolean needsKeepAlive (long time) {
 		return socketChannel != null && keepAliveMillis > 0 && time - lastWriteTime > keepAliveMillis;
 	}
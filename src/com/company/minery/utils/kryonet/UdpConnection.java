@@ -30,28 +30,42 @@ import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** @author Nathan Sweet <misc@n4te.com> */
 class UdpConnection {
 	InetSocketAddress connectedAddress;
 	DatagramChannel datagramChannel;
 	int keepAliveMillis = 19000;
-	final ByteBuffer readBuffer, writeBuffer;
+	/** Datagrams sent start with the connection ID, datagrams received are expected to. */
+	boolean prefixWrites, prefixReads;
+	/** Datagrams received hold one or more objects, each preceded by its length as a variable length int. */
+	boolean batchReads;
+	final ByteBuffer readBuffer;
+	/** Each sending thread serializes into its own buffer, so sends don't wait on each other. */
+	private final ThreadLocal<ByteBuffer> writeBuffer;
 	private final Serialization serialization;
 	private SelectionKey selectionKey;
-	private final Object writeLock = new Object();
-	private long lastCommunicationTime;
+	private volatile long lastCommunicationTime;
+	private final AtomicLong datagramsSent = new AtomicLong();
+	private boolean readingBatch;
+	// Objects sent to a connection are batched into one datagram of at most this many bytes, zero sends each right away.
+	private int batchSize;
+	private BufferPool batchPool;
 
-	public UdpConnection (Serialization serialization, int bufferSize) {
+	public UdpConnection (Serialization serialization, final int bufferSize) {
 		this.serialization = serialization;
 		readBuffer = ByteBuffer.allocate(bufferSize);
-		writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+		writeBuffer = new ThreadLocal<ByteBuffer>() {
+			protected ByteBuffer initialValue () {
+				return ByteBuffer.allocateDirect(bufferSize);
+			}
+		};
 	}
 
 	public void bind (Selector selector, InetSocketAddress localPort) throws IOException {
 		close();
 		readBuffer.clear();
-		writeBuffer.clear();
 		try {
 			datagramChannel = selector.provider().openDatagramChannel();
 			datagramChannel.socket().bind(localPort);
@@ -68,7 +82,6 @@ class UdpConnection {
 	public void connect (Selector selector, InetSocketAddress remoteAddress) throws IOException {
 		close();
 		readBuffer.clear();
-		writeBuffer.clear();
 		try {
 			datagramChannel = selector.provider().openDatagramChannel();
 			datagramChannel.socket().bind(null);
@@ -88,17 +101,46 @@ class UdpConnection {
 		}
 	}
 
+	/** Objects sent to a connection wait in a batch until {@link #flush(Connection, SocketAddress)} or until the next one doesn't
+	 * fit, then they all go out in one datagram. The receiver needs {@link #batchReads}. Only used by the server, which doesn't
+	 * prefix its datagrams.
+	 * @param batchSize The most bytes batched into one datagram, zero to send every object right away. */
+	public void setBatchSize (int batchSize) {
+		if (batchSize < 0) throw new IllegalArgumentException("batchSize must be >= 0: " + batchSize);
+		this.batchSize = batchSize;
+		// A batch always fits the largest object, which is then sent on its own.
+		batchPool = batchSize > 0 ? new BufferPool(Math.max(batchSize, readBuffer.capacity() + maxFrameHeader)) : null;
+	}
+
 	public InetSocketAddress readFromAddress () throws IOException {
 		DatagramChannel datagramChannel = this.datagramChannel;
 		if (datagramChannel == null) throw new SocketException("Connection is closed.");
+		if (readingBatch) {
+			// The objects left in the last datagram were not read.
+			readBuffer.clear();
+			readingBatch = false;
+		}
 		lastCommunicationTime = System.currentTimeMillis();
 		return (InetSocketAddress)datagramChannel.receive(readBuffer);
 	}
 
+	/** Returns the connection ID the last received datagram starts with, or 0 if it is too short to have one. Only valid before
+	 * {@link #readObject(Connection)}. */
+	public int readConnectionID () {
+		return readBuffer.position() >= 4 ? readBuffer.getInt(0) : 0;
+	}
+
+	/** Returns the object in the last received datagram. With {@link #batchReads}, returns the next object of the datagram or null
+	 * when all were read. */
 	public Object readObject (Connection connection) {
+		if (batchReads) return readBatchedObject(connection);
 		readBuffer.flip();
 		try {
 			try {
+				if (prefixReads) {
+					if (readBuffer.remaining() < 4) throw new KryoNetException("Datagram is missing the connection ID.");
+					readBuffer.position(4);
+				}
 				Object object = serialization.read(connection, readBuffer);
 				if (readBuffer.hasRemaining())
 					throw new KryoNetException("Incorrect number of bytes (" + readBuffer.remaining()
@@ -112,29 +154,180 @@ class UdpConnection {
 		}
 	}
 
-	/** This method is thread safe. */
+	private Object readBatchedObject (Connection connection) {
+		if (!readingBatch) {
+			readBuffer.flip();
+			readingBatch = true;
+			if (prefixReads) {
+				if (readBuffer.remaining() < 4) {
+					readBuffer.clear();
+					readingBatch = false;
+					throw new KryoNetException("Datagram is missing the connection ID.");
+				}
+				readBuffer.position(4);
+			}
+		}
+		if (!readBuffer.hasRemaining()) {
+			readBuffer.clear();
+			readingBatch = false;
+			return null;
+		}
+		try {
+			int length = readFrameLength(readBuffer);
+			if (length <= 0 || length > readBuffer.remaining())
+				throw new KryoNetException("Invalid object length: " + length + ", " + readBuffer.remaining() + " bytes left.");
+			int limit = readBuffer.limit();
+			readBuffer.limit(readBuffer.position() + length);
+			Object object = serialization.read(connection, readBuffer);
+			if (readBuffer.hasRemaining())
+				throw new KryoNetException("Incorrect number of bytes (" + readBuffer.remaining()
+					+ " remaining) used to deserialize object: " + object);
+			readBuffer.limit(limit);
+			return object;
+		} catch (Exception ex) {
+			// The rest of the datagram can't be framed anymore.
+			readBuffer.clear();
+			readingBatch = false;
+			throw new KryoNetException("Error during deserialization.", ex);
+		}
+	}
+
+	/** This method is thread safe, the datagram channel serializes the actual sends. */
 	public int send (Connection connection, Object object, SocketAddress address) throws IOException {
 		DatagramChannel datagramChannel = this.datagramChannel;
 		if (datagramChannel == null) throw new SocketException("Connection is closed.");
-		synchronized (writeLock) {
+		ByteBuffer writeBuffer = this.writeBuffer.get();
+		try {
 			try {
-				try {
-					serialization.write(connection, writeBuffer, object);
-				} catch (Exception ex) {
-					throw new KryoNetException("Error serializing object of type: " + object.getClass().getName(), ex);
-				}
-				writeBuffer.flip();
-				int length = writeBuffer.limit();
-				datagramChannel.send(writeBuffer, address);
+				if (prefixWrites) writeBuffer.putInt(connection.id);
+				serialization.write(connection, writeBuffer, object);
+			} catch (Exception ex) {
+				throw new KryoNetException("Error serializing object of type: " + object.getClass().getName(), ex);
+			}
+			writeBuffer.flip();
+			if (batchSize > 0) return batch(connection, writeBuffer, address);
+			int length = writeBuffer.limit();
+			datagramChannel.send(writeBuffer, address);
+			datagramsSent.incrementAndGet();
+
+			lastCommunicationTime = System.currentTimeMillis();
 
-				lastCommunicationTime = System.currentTimeMillis();
+			boolean wasFullWrite = !writeBuffer.hasRemaining();
+			return wasFullWrite ? length : -1;
+		} finally {
+			writeBuffer.clear();
+		}
+	}
+
+	/** Sends bytes that were serialized once for many connections, see {@link Server#sendToAllUDP(Object)}. The data's position
+	 * is left unchanged. This method is thread safe. */
+	public int send (Connection connection, ByteBuffer data, SocketAddress address) throws IOException {
+		DatagramChannel datagramChannel = this.datagramChannel;
+		if (datagramChannel == null) throw new SocketException("Connection is closed.");
+		if (prefixWrites) throw new IllegalStateException("Datagrams prefixed with the connection ID can't be shared.");
+		int start = data.position();
+		try {
+			if (batchSize > 0) return batch(connection, data, address);
+			int length = data.remaining();
+			datagramChannel.send(data, address);
+			datagramsSent.incrementAndGet();
 
-				boolean wasFullWrite = !writeBuffer.hasRemaining();
-				return wasFullWrite ? length : -1;
-			} finally {
-				writeBuffer.clear();
+			lastCommunicationTime = System.currentTimeMillis();
+
+			boolean wasFullWrite = !data.hasRemaining();
+			return wasFullWrite ? length : -1;
+		} finally {
+			data.position(start);
+		}
+	}
+
+	/** Adds the serialized object to the connection's batch, first sending the batch if the object doesn't fit anymore. The data's
+	 * position is left at its limit.
+	 * @return The number of bytes batched. */
+	private int batch (Connection connection, ByteBuffer data, SocketAddress address) throws IOException {
+		if (!connection.isConnected) throw new SocketException("Connection is closed.");
+		int length = data.remaining();
+		int frameLength = frameLengthLength(length) + length;
+		synchronized (connection.udpBatchLock) {
+			ByteBuffer batch = connection.udpBatch;
+			if (batch != null && batch.position() + frameLength > batchSize) {
+				sendBatch(connection, address);
+				batch = null;
+			}
+			if (batch == null) connection.udpBatch = batch = batchPool.obtain();
+			writeFrameLength(batch, length);
+			batch.put(data);
+		}
+		return frameLength;
+	}
+
+	/** Sends the objects batched for the connection, if any. This method is thread safe. */
+	public void flush (Connection connection, SocketAddress address) throws IOException {
+		synchronized (connection.udpBatchLock) {
+			if (connection.udpBatch != null) sendBatch(connection, address);
+		}
+	}
+
+	/** Drops the objects batched for the connection, if any. This method is thread safe. */
+	public void discardBatch (Connection connection) {
+		synchronized (connection.udpBatchLock) {
+			ByteBuffer batch = connection.udpBatch;
+			if (batch == null) return;
+			connection.udpBatch = null;
+			batchPool.free(batch);
+		}
+	}
+
+	/** Called with the connection's batch lock held. */
+	private void sendBatch (Connection connection, SocketAddress address) throws IOException {
+		ByteBuffer batch = connection.udpBatch;
+		connection.udpBatch = null;
+		try {
+			DatagramChannel datagramChannel = this.datagramChannel;
+			if (datagramChannel == null) throw new SocketException("Connection is closed.");
+			batch.flip();
+			datagramChannel.send(batch, address);
+			datagramsSent.incrementAndGet();
+			lastCommunicationTime = System.currentTimeMillis();
+			if (batch.hasRemaining()) {
+				connection.udpBufferFull.set(true);
+				if (DEBUG) debug("kryonet", connection + " was unable to send, UDP socket buffer full.");
 			}
+		} finally {
+			batchPool.free(batch);
+		}
+	}
+
+	/** Returns the number of datagrams sent so far. */
+	public long getDatagramsSent () {
+		return datagramsSent.get();
+	}
+
+	static private final int maxFrameHeader = 3;
+
+	static private int frameLengthLength (int length) {
+		if (length < 1 << 7) return 1;
+		if (length < 1 << 14) return 2;
+		return 3;
+	}
+
+	static private void writeFrameLength (ByteBuffer buffer, int length) {
+		while (length >= 0x80) {
+			buffer.put((byte)(length | 0x80));
+			length >>>= 7;
+		}
+		buffer.put((byte)length);
+	}
+
+	static private int readFrameLength (ByteBuffer buffer) {
+		int length = 0;
+		for (int shift = 0; shift < 7 * maxFrameHeader; shift += 7) {
+			if (!buffer.hasRemaining()) break;
+			int b = buffer.get();
+			length |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return length;
 		}
+		throw new KryoNetException("Invalid object length.");
 	}
 
 	public void close () {